@@ -20,10 +20,10 @@ package net.luminis.osgitest.test.adhoc;
 
 import java.io.IOException;
 
+import net.luminis.osgitest.test.support.WarmFrameworkTestBase;
 import net.luminis.osgitest.testhelper.BundleSpecifier;
 import net.luminis.osgitest.testhelper.OSGiSpec;
 import net.luminis.osgitest.testhelper.OSGiVersionSpecs;
-import net.luminis.osgitest.testhelper.TestBase;
 
 import org.junit.Test;
 import org.osgi.framework.Bundle;
@@ -33,7 +33,7 @@ import org.osgi.service.packageadmin.ExportedPackage;
 /**
  * Empty framework for ad-hoc tests
  */
-public class AdHocTest extends TestBase {
+public class AdHocTest extends WarmFrameworkTestBase {
 
 
     @Test
@@ -55,8 +55,9 @@ public class AdHocTest extends TestBase {
                 if (exportedPackages.length != j) {
                     allOk = false;
                 }
-                b.uninstall();
-                m_bu.refreshFrameworkAndWait(new Bundle[] {b});
+                // Every run exports the same packages, so the exporter of this run is refreshed away before the next.
+                uninstall(b);
+                refresh();
             }
         }
 
@@ -86,8 +87,9 @@ public class AdHocTest extends TestBase {
                 if (exportedPackages.length != j) {
                     allOk = false;
                 }
-                b.uninstall();
-                m_bu.refreshFrameworkAndWait(new Bundle[] {b});
+                // Every run exports the same packages, so the exporter of this run is refreshed away before the next.
+                uninstall(b);
+                refresh();
             }
         }
         assert allOk : "Something went wrong creating multi-export packages; run output below.\n" + results.toString();
@@ -108,7 +110,7 @@ public class AdHocTest extends TestBase {
         }
         Bundle b = null;
         try {
-            b = m_bu.installBundle(bs);
+            b = installCachedBundle(bs);
         }
         catch (BundleException e) {
             // Safely suppressed.
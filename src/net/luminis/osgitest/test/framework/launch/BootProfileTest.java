@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.framework.launch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import net.luminis.osgitest.test.performance.Benchmark;
+import net.luminis.osgitest.test.support.SpecSectionRunner;
+import net.luminis.osgitest.testhelper.OSGiSpec;
+import net.luminis.osgitest.testhelper.OSGiVersionSpecs;
+import net.luminis.osgitest.testhelper.TestBase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+/**
+ * Records how long the framework took to boot, and its footprint once booted. Pax Exam starts a fresh
+ * framework JVM for every test method, so the times are measured from the start of that JVM:
+ * <ul>
+ * <li><code>firstBundleInstalledMs</code>: until the first bundle was installed, the closest point to the
+ * framework being started that can be seen from inside it;</li>
+ * <li><code>testBundleInstalledMs</code>: until the bundle holding this test was installed;</li>
+ * <li><code>testStartedMs</code>: until this test started, so the test bundle was resolved and started.</li>
+ * </ul>
+ * Next to that, the heap in use after garbage collection, the number of loaded classes, live threads and
+ * installed bundles are recorded. The profile is printed to System.err, so it ends up in the test report,
+ * and stored as <code>BOOT-&lt;vendor&gt;-&lt;version&gt;.properties</code> in the directory set with the
+ * system property {@link #PROP_DIRECTORY}.
+ */
+@RunWith(SpecSectionRunner.class)
+public class BootProfileTest extends TestBase {
+
+    public static final String PROP_DIRECTORY = "net.luminis.osgitest.boot.dir";
+
+    @Test
+    @OSGiVersionSpecs({
+        @OSGiSpec(version="4.1", sections={"4.5"}),
+        @OSGiSpec(version="4.2", sections={"4.2", "4.6"})
+    })
+    public void testBootProfile() throws IOException {
+        long now = System.currentTimeMillis();
+        long jvmStart = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+        long firstInstall = Long.MAX_VALUE;
+        Bundle[] bundles = m_context.getBundles();
+        for (Bundle bundle : bundles) {
+            if (bundle.getBundleId() != 0) {
+                firstInstall = Math.min(firstInstall, bundle.getLastModified());
+            }
+        }
+
+        Properties profile = new Properties();
+        profile.setProperty("vendor", String.valueOf(m_context.getProperty(Constants.FRAMEWORK_VENDOR)));
+        profile.setProperty("version", String.valueOf(m_context.getProperty(Constants.FRAMEWORK_VERSION)));
+        profile.setProperty("firstBundleInstalledMs", String.valueOf(since(jvmStart, firstInstall)));
+        profile.setProperty("testBundleInstalledMs", String.valueOf(since(jvmStart, m_context.getBundle().getLastModified())));
+        profile.setProperty("testStartedMs", String.valueOf(now - jvmStart));
+        profile.setProperty("heapAfterBootKB", String.valueOf(Benchmark.getRetainedHeap() / 1024));
+        profile.setProperty("loadedClasses", String.valueOf(ManagementFactory.getClassLoadingMXBean().getLoadedClassCount()));
+        profile.setProperty("threads", String.valueOf(ManagementFactory.getThreadMXBean().getThreadCount()));
+        profile.setProperty("bundles", String.valueOf(bundles.length));
+        System.err.println("Boot profile: " + profile);
+
+        String dir = System.getProperty(PROP_DIRECTORY);
+        if (dir != null) {
+            File file = new File(dir, ("BOOT-" + profile.getProperty("vendor") + "-" + profile.getProperty("version")).replaceAll("[^\\w.-]", "_") + ".properties");
+            file.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                profile.store(out, "Boot profile of " + profile.getProperty("vendor") + " " + profile.getProperty("version"));
+            }
+            finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the time between the JVM start and the given time, or -1 when the time is unknown or
+     * before the JVM start, like for bundles installed from a persisted framework cache.
+     */
+    private static long since(long jvmStart, long time) {
+        return ((time <= 0) || (time == Long.MAX_VALUE) || (time < jvmStart)) ? -1 : time - jvmStart;
+    }
+}
@@ -27,12 +27,14 @@ import java.net.URL;
 import java.util.Dictionary;
 import java.util.Enumeration;
 
+import net.luminis.osgitest.test.support.SpecSectionRunner;
 import net.luminis.osgitest.testhelper.BundleSpecifier;
 import net.luminis.osgitest.testhelper.OSGiSpec;
 import net.luminis.osgitest.testhelper.OSGiVersionSpecs;
 import net.luminis.osgitest.testhelper.TestBase;
 
 import org.junit.Test;
+import org.junit.runner.RunWith;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
@@ -43,6 +45,7 @@ import org.osgi.framework.Constants;
  * - create tests for checking bundle fragments
  * - create tests using one or more target specifiers on the classpath.
  */
+@RunWith(SpecSectionRunner.class)
 public class ClassPathTest extends TestBase {
 
     /**
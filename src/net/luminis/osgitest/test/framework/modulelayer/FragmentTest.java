@@ -20,9 +20,9 @@ package net.luminis.osgitest.test.framework.modulelayer;
 
 import java.io.IOException;
 
+import net.luminis.osgitest.test.support.WarmFrameworkTestBase;
 import net.luminis.osgitest.testhelper.OSGiSpec;
 import net.luminis.osgitest.testhelper.OSGiVersionSpecs;
-import net.luminis.osgitest.testhelper.TestBase;
 
 import org.junit.Test;
 import org.osgi.framework.Bundle;
@@ -32,7 +32,7 @@ import org.osgi.framework.BundleException;
  * Tests for fragment bundles
  *
  */
-public class FragmentTest extends TestBase {
+public class FragmentTest extends WarmFrameworkTestBase {
 
     /**
      * Test if packages are properly exported when the originate from fragmented bundles.
@@ -20,18 +20,21 @@ package net.luminis.osgitest.test.framework.modulelayer;
 
 import java.io.IOException;
 
+import net.luminis.osgitest.test.support.SpecSectionRunner;
 import net.luminis.osgitest.testhelper.BundleSpecifier;
 import net.luminis.osgitest.testhelper.OSGiSpec;
 import net.luminis.osgitest.testhelper.OSGiVersionSpecs;
 import net.luminis.osgitest.testhelper.TestBase;
 
 import org.junit.Test;
+import org.junit.runner.RunWith;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
 
 /**
  * Tests the framework's service layer: checks service visibility and partitioning.
  */
+@RunWith(SpecSectionRunner.class)
 public class ServiceTest extends TestBase {
 
     /**
@@ -23,9 +23,12 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import net.luminis.osgitest.test.support.BundleNamespace;
+import net.luminis.osgitest.test.support.ConcurrentScenarios;
+import net.luminis.osgitest.test.support.WarmFrameworkTestBase;
+import net.luminis.osgitest.testhelper.BundleSpecifier;
 import net.luminis.osgitest.testhelper.OSGiSpec;
 import net.luminis.osgitest.testhelper.OSGiVersionSpecs;
-import net.luminis.osgitest.testhelper.TestBase;
 import net.luminis.osgitest.testhelper.packages.q.QInterface1;
 import net.luminis.osgitest.testhelper.packages.r.RInterface1;
 
@@ -38,7 +41,7 @@ import org.osgi.service.packageadmin.PackageAdmin;
 /**
  * Tests the framework's module layer: check general wiring tests.
  */
-public class WiringTest extends TestBase {
+public class WiringTest extends WarmFrameworkTestBase {
 
     /**
      * Tests whether we can use the package admin, and it comes from the right source.
@@ -138,25 +141,25 @@ public class WiringTest extends TestBase {
         @OSGiSpec(version="4.1", sections={"3.2.5", "3.6.2"}),
         @OSGiSpec(version="4.2", sections={"3.2.6", "3.6.2"})
     })
-    public void testVersionedResolving() throws BundleException, IOException {
-        testVersionedResolve(new String[] {}, "", true);
-        cleanupBundles();
-        testVersionedResolve(new String[] { "1.1" }, "[1.1,1.1]", true);
-        cleanupBundles();
-        testVersionedResolve(new String[] { "2.0" }, "[1.0,2.0)", false);
-        cleanupBundles();
-        testVersionedResolve(new String[] { "1.1" }, "[1.0,1.1)", false);
-        cleanupBundles();
-        testVersionedResolve(new String[] { "1.1", "1.0" }, "[1.0,1.1)", true);
-        cleanupBundles();
-        testVersionedResolve(new String[] { "1.1", "1.0" }, "(1.0,1.1]", true);
-        cleanupBundles();
-        testVersionedResolve(new String[] { "1.0" }, "(1.0,1.1]", false);
-        cleanupBundles();
-        testVersionedResolve(new String[] { "1.0" }, "(1.0,1.1)", false);
-        cleanupBundles();
-        testVersionedResolve(new String[] { "1.0.2" }, "(1.0,1.1)", true);
-        cleanupBundles();
+    public void testVersionedResolving() throws InterruptedException {
+        // Without versions, the import would also match the exports of the other cases, so that case runs
+        // on its own, and is refreshed away before the others start.
+        createScenarios()
+            .add("unversioned", versionedResolve(new String[] {}, "", true))
+            .run(REFRESH_TIMEOUT);
+        refresh();
+
+        // The versioned cases are independent, so they run at the same time, each in its own namespace.
+        createScenarios()
+            .add("[1.1,1.1]", versionedResolve(new String[] { "1.1" }, "[1.1,1.1]", true))
+            .add("[1.0,2.0)", versionedResolve(new String[] { "2.0" }, "[1.0,2.0)", false))
+            .add("[1.0,1.1)", versionedResolve(new String[] { "1.1" }, "[1.0,1.1)", false))
+            .add("[1.0,1.1) of two", versionedResolve(new String[] { "1.1", "1.0" }, "[1.0,1.1)", true))
+            .add("(1.0,1.1] of two", versionedResolve(new String[] { "1.1", "1.0" }, "(1.0,1.1]", true))
+            .add("(1.0,1.1]", versionedResolve(new String[] { "1.0" }, "(1.0,1.1]", false))
+            .add("(1.0,1.1)", versionedResolve(new String[] { "1.0" }, "(1.0,1.1)", false))
+            .add("(1.0,1.1) micro", versionedResolve(new String[] { "1.0.2" }, "(1.0,1.1)", true))
+            .run(REFRESH_TIMEOUT);
     }
 
     /**
@@ -167,37 +170,50 @@ public class WiringTest extends TestBase {
      * @param importedVersion The version range to be imported by the importer.
      * @param allowed Whether or not this combination is supposed to be allowed; will assert on violation.
      */
-    private void testVersionedResolve(String[] exportedVersion, String importedVersion, boolean allowed) throws BundleException, IOException {
-        StringBuilder exported = new StringBuilder();
-        if (exportedVersion != null) {
-            for (String version : exportedVersion) {
-                if (exported.length() > 0) {
-                    exported.append(", ");
+    private ConcurrentScenarios.Scenario versionedResolve(final String[] exportedVersion, final String importedVersion, final boolean allowed) {
+        return new ConcurrentScenarios.Scenario() {
+            public void run(BundleNamespace namespace) throws Exception {
+                StringBuilder exported = new StringBuilder();
+                if (exportedVersion != null) {
+                    for (String version : exportedVersion) {
+                        if (exported.length() > 0) {
+                            exported.append(", ");
+                        }
+                        exported.append(version);
+                    }
+                }
+                else {
+                    exported.append("(none)");
                 }
-                exported.append(version);
-            }
-        }
-        else {
-            exported.append("(none)");
-        }
 
-        boolean isAllowed;
-        try {
-            testVersionedResolve(exportedVersion, importedVersion);
-            isAllowed = true;
-        }
-        catch (AssertionError e) {
-            isAllowed = false;
-        }
-        assert allowed == isAllowed : "Exporting versions " + exported.toString() + " and importing version " + ((importedVersion == null) ? "(none)" : importedVersion) + " should " + (allowed ? "" : "not") + " resolve.";
+                boolean isAllowed;
+                try {
+                    testVersionedResolve(namespace, exportedVersion, importedVersion);
+                    isAllowed = true;
+                }
+                catch (AssertionError e) {
+                    isAllowed = false;
+                }
+                assert allowed == isAllowed : "Exporting versions " + exported.toString() + " and importing version " + ((importedVersion == null) ? "(none)" : importedVersion) + " should " + (allowed ? "" : "not") + " resolve.";
+            }
+        };
     }
 
     /**
      * Helper-helper method for testVersionedResolve
      */
-    private void testVersionedResolve(String[] exportedVersion, String importedVersion) throws BundleException, IOException {
-        Bundle a = m_bu.installImpExBundle("a", Foo, null, exportedVersion, null);
-        Bundle b = m_bu.installImpExBundle("b", Foo, null, null, importedVersion);
+    private void testVersionedResolve(BundleNamespace namespace, String[] exportedVersion, String importedVersion) throws BundleException, IOException {
+        BundleSpecifier exporter = namespace.createBundleSpecifier("a").addClass(Foo);
+        if (exportedVersion.length == 0) {
+            exporter.addExport(namespace.createExportPackage(fooPackage));
+        }
+        for (String version : exportedVersion) {
+            exporter.addExport(namespace.createExportPackage(fooPackage, version));
+        }
+        BundleSpecifier importer = namespace.createBundleSpecifier("b").addClass(Foo)
+            .addImport(namespace.createImportPackage(fooPackage, importedVersion));
+        Bundle a = m_bu.installBundle(exporter);
+        Bundle b = m_bu.installBundle(importer);
 
         assert m_admin.resolveBundles(new Bundle[] { a, b }) : "Cannot resolve a and b.";
 
@@ -299,7 +315,7 @@ public class WiringTest extends TestBase {
             }
             a.stop();
             a.uninstall();
-            m_admin.refreshPackages(null);
+            m_refresh.refresh((Bundle[]) null);
 
         }
         catch (BundleException e) {
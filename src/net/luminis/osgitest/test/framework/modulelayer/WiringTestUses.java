@@ -20,9 +20,9 @@ package net.luminis.osgitest.test.framework.modulelayer;
 
 import java.io.IOException;
 
+import net.luminis.osgitest.test.support.WarmFrameworkTestBase;
 import net.luminis.osgitest.testhelper.OSGiSpec;
 import net.luminis.osgitest.testhelper.OSGiVersionSpecs;
-import net.luminis.osgitest.testhelper.TestBase;
 
 import org.junit.Test;
 import org.osgi.framework.Bundle;
@@ -31,7 +31,7 @@ import org.osgi.framework.BundleException;
 /**
  * Tests the framework's module layer: checks uses constraints.
  */
-public class WiringTestUses extends TestBase {
+public class WiringTestUses extends WarmFrameworkTestBase {
 
     /**
      * Recreates a case from spec section 3.6.4, fig 3.16, (fig3.17 in r4.2) in the original shape.
@@ -42,30 +42,37 @@ public class WiringTestUses extends TestBase {
         @OSGiSpec(version="4.2", sections={"3.6.4"})
     })
     public void testSpec364fig316case1() throws IOException, BundleException {
-        Bundle a = m_bu.installBundle(m_bu.createBundleSpecifier("a").
-            addImport(m_bu.createImportPackage(pPackage)).
-            addImport(m_bu.createImportPackage(tPackage)));
-        Bundle b = m_bu.installBundle(m_bu.createBundleSpecifier("b")
-            .addImport(m_bu.createImportPackage(qPackage))
-            .addExport(m_bu.createExportPackage(pPackage).addUses(qPackage)));
-        Bundle c = m_bu.installBundle(m_bu.createBundleSpecifier("c")
-            .addImport(m_bu.createImportPackage(rPackage))
-            .addImport(m_bu.createImportPackage(sPackage))
-            .addExport(m_bu.createExportPackage(qPackage)
-                .addUses(rPackage)
-                .addUses(sPackage)));
-        Bundle d = m_bu.installBundle(m_bu.createBundleSpecifier("d")
-            .addImport(m_bu.createImportPackage(tPackage))
-            .addExport(m_bu.createExportPackage(sPackage)
-                .addUses(tPackage))
-            .addExport(m_bu.createExportPackage(tPackage)
-                .addUses(tPackage)));
-        Bundle e = m_bu.installBundle(m_bu.createBundleSpecifier("e")
-            .addImport(m_bu.createImportPackage(tPackage))
-            .addExport(m_bu.createExportPackage(rPackage)
-                .addUses(tPackage)));
-        Bundle f = m_bu.installBundle(m_bu.createBundleSpecifier("f")
-            .addExport(m_bu.createExportPackage(tPackage)));
+        Bundle[] bundles = installBundles(
+            m_bu.createBundleSpecifier("a").
+                addImport(m_bu.createImportPackage(pPackage)).
+                addImport(m_bu.createImportPackage(tPackage)),
+            m_bu.createBundleSpecifier("b")
+                .addImport(m_bu.createImportPackage(qPackage))
+                .addExport(m_bu.createExportPackage(pPackage).addUses(qPackage)),
+            m_bu.createBundleSpecifier("c")
+                .addImport(m_bu.createImportPackage(rPackage))
+                .addImport(m_bu.createImportPackage(sPackage))
+                .addExport(m_bu.createExportPackage(qPackage)
+                    .addUses(rPackage)
+                    .addUses(sPackage)),
+            m_bu.createBundleSpecifier("d")
+                .addImport(m_bu.createImportPackage(tPackage))
+                .addExport(m_bu.createExportPackage(sPackage)
+                    .addUses(tPackage))
+                .addExport(m_bu.createExportPackage(tPackage)
+                    .addUses(tPackage)),
+            m_bu.createBundleSpecifier("e")
+                .addImport(m_bu.createImportPackage(tPackage))
+                .addExport(m_bu.createExportPackage(rPackage)
+                    .addUses(tPackage)),
+            m_bu.createBundleSpecifier("f")
+                .addExport(m_bu.createExportPackage(tPackage)));
+        Bundle a = bundles[0];
+        Bundle b = bundles[1];
+        Bundle c = bundles[2];
+        Bundle d = bundles[3];
+        Bundle e = bundles[4];
+        Bundle f = bundles[5];
 
         assert m_admin.resolveBundles(new Bundle[] { a, b, c, d, e, f }) : "This situation should resolve.";
 
@@ -88,30 +95,37 @@ public class WiringTestUses extends TestBase {
         @OSGiSpec(version="4.2", sections={"3.6.4"})
     })
     public void testSpec364fig316case2() throws IOException, BundleException {
-        Bundle f = m_bu.installBundle(m_bu.createBundleSpecifier("f")
-            .addExport(m_bu.createExportPackage(tPackage)));
-        Bundle a = m_bu.installBundle(m_bu.createBundleSpecifier("a").
-            addImport(m_bu.createImportPackage(pPackage)).
-            addImport(m_bu.createImportPackage(tPackage)));
-        Bundle b = m_bu.installBundle(m_bu.createBundleSpecifier("b")
-            .addImport(m_bu.createImportPackage(qPackage))
-            .addExport(m_bu.createExportPackage(pPackage).addUses(qPackage)));
-        Bundle c = m_bu.installBundle(m_bu.createBundleSpecifier("c")
-            .addImport(m_bu.createImportPackage(rPackage))
-            .addImport(m_bu.createImportPackage(sPackage))
-            .addExport(m_bu.createExportPackage(qPackage)
-                .addUses(rPackage)
-                .addUses(sPackage)));
-        Bundle d = m_bu.installBundle(m_bu.createBundleSpecifier("d")
-            .addImport(m_bu.createImportPackage(tPackage))
-            .addExport(m_bu.createExportPackage(sPackage)
-                .addUses(tPackage))
-            .addExport(m_bu.createExportPackage(tPackage)
-                .addUses(tPackage)));
-        Bundle e = m_bu.installBundle(m_bu.createBundleSpecifier("e")
-            .addImport(m_bu.createImportPackage(tPackage))
-            .addExport(m_bu.createExportPackage(rPackage)
-                .addUses(tPackage)));
+        Bundle[] bundles = installBundles(
+            m_bu.createBundleSpecifier("f")
+                .addExport(m_bu.createExportPackage(tPackage)),
+            m_bu.createBundleSpecifier("a").
+                addImport(m_bu.createImportPackage(pPackage)).
+                addImport(m_bu.createImportPackage(tPackage)),
+            m_bu.createBundleSpecifier("b")
+                .addImport(m_bu.createImportPackage(qPackage))
+                .addExport(m_bu.createExportPackage(pPackage).addUses(qPackage)),
+            m_bu.createBundleSpecifier("c")
+                .addImport(m_bu.createImportPackage(rPackage))
+                .addImport(m_bu.createImportPackage(sPackage))
+                .addExport(m_bu.createExportPackage(qPackage)
+                    .addUses(rPackage)
+                    .addUses(sPackage)),
+            m_bu.createBundleSpecifier("d")
+                .addImport(m_bu.createImportPackage(tPackage))
+                .addExport(m_bu.createExportPackage(sPackage)
+                    .addUses(tPackage))
+                .addExport(m_bu.createExportPackage(tPackage)
+                    .addUses(tPackage)),
+            m_bu.createBundleSpecifier("e")
+                .addImport(m_bu.createImportPackage(tPackage))
+                .addExport(m_bu.createExportPackage(rPackage)
+                    .addUses(tPackage)));
+        Bundle f = bundles[0];
+        Bundle a = bundles[1];
+        Bundle b = bundles[2];
+        Bundle c = bundles[3];
+        Bundle d = bundles[4];
+        Bundle e = bundles[5];
 
         assert m_admin.resolveBundles(new Bundle[] { a, b, c, d, e, f }) : "This situation should resolve.";
 
@@ -133,17 +147,22 @@ public class WiringTestUses extends TestBase {
         @OSGiSpec(version="4.2", sections={"3.6.4"})
     })
     public void testSpec364fig315case1() throws IOException, BundleException {
-        Bundle a = m_bu.installBundle(m_bu.createBundleSpecifier("a")
-            .addImport(m_bu.createImportPackage(pPackage))
-            .addImport(m_bu.createImportPackage(qPackage)));
-        Bundle b = m_bu.installBundle(m_bu.createBundleSpecifier("b")
-            .addImport(m_bu.createImportPackage(qPackage))
-            .addExport(m_bu.createExportPackage(pPackage)
-                .addUses(qPackage)));
-        Bundle c = m_bu.installBundle(m_bu.createBundleSpecifier("c")
-            .addExport(m_bu.createExportPackage(qPackage)));
-        Bundle d = m_bu.installBundle(m_bu.createBundleSpecifier("d")
-            .addExport(m_bu.createExportPackage(qPackage)));
+        Bundle[] bundles = installBundles(
+            m_bu.createBundleSpecifier("a")
+                .addImport(m_bu.createImportPackage(pPackage))
+                .addImport(m_bu.createImportPackage(qPackage)),
+            m_bu.createBundleSpecifier("b")
+                .addImport(m_bu.createImportPackage(qPackage))
+                .addExport(m_bu.createExportPackage(pPackage)
+                    .addUses(qPackage)),
+            m_bu.createBundleSpecifier("c")
+                .addExport(m_bu.createExportPackage(qPackage)),
+            m_bu.createBundleSpecifier("d")
+                .addExport(m_bu.createExportPackage(qPackage)));
+        Bundle a = bundles[0];
+        Bundle b = bundles[1];
+        Bundle c = bundles[2];
+        Bundle d = bundles[3];
 
         assert m_admin.resolveBundles(new Bundle[] { a, b, c, d }) : "This situation should resolve.";
 
@@ -164,16 +183,21 @@ public class WiringTestUses extends TestBase {
         @OSGiSpec(version="4.1", sections={"3.6.4"})
     })
     public void testSpec364fig315case2() throws IOException, BundleException {
-        Bundle a = m_bu.installBundle(m_bu.createBundleSpecifier("a")
-            .addImport(m_bu.createImportPackage(pPackage))
-            .addImport(m_bu.createImportPackage(qPackage).setVersion("[2.1,2.1]")));
-        Bundle b = m_bu.installBundle(m_bu.createBundleSpecifier("b")
-            .addImport(m_bu.createImportPackage(qPackage).setVersion("[2.4,2.4]"))
-            .addExport(m_bu.createExportPackage(pPackage)));
-        Bundle c = m_bu.installBundle(m_bu.createBundleSpecifier("c")
-            .addExport(m_bu.createExportPackage(qPackage).setVersion("2.1")));
-        Bundle d = m_bu.installBundle(m_bu.createBundleSpecifier("d")
-            .addExport(m_bu.createExportPackage(qPackage).setVersion("2.4")));
+        Bundle[] bundles = installBundles(
+            m_bu.createBundleSpecifier("a")
+                .addImport(m_bu.createImportPackage(pPackage))
+                .addImport(m_bu.createImportPackage(qPackage).setVersion("[2.1,2.1]")),
+            m_bu.createBundleSpecifier("b")
+                .addImport(m_bu.createImportPackage(qPackage).setVersion("[2.4,2.4]"))
+                .addExport(m_bu.createExportPackage(pPackage)),
+            m_bu.createBundleSpecifier("c")
+                .addExport(m_bu.createExportPackage(qPackage).setVersion("2.1")),
+            m_bu.createBundleSpecifier("d")
+                .addExport(m_bu.createExportPackage(qPackage).setVersion("2.4")));
+        Bundle a = bundles[0];
+        Bundle b = bundles[1];
+        Bundle c = bundles[2];
+        Bundle d = bundles[3];
 
         assert m_admin.resolveBundles(new Bundle[] { a, b, c, d }) : "This situation should resolve.";
 
@@ -193,17 +217,22 @@ public class WiringTestUses extends TestBase {
         @OSGiSpec(version="4.2", sections={"3.6.4"})
     })
     public void testSpec364fig315case3() throws IOException, BundleException {
-        Bundle a = m_bu.installBundle(m_bu.createBundleSpecifier("a")
-            .addImport(m_bu.createImportPackage(pPackage))
-            .addImport(m_bu.createImportPackage(qPackage).setVersion("[2.1,2.1]")));
-        Bundle b = m_bu.installBundle(m_bu.createBundleSpecifier("b")
-            .addImport(m_bu.createImportPackage(qPackage).setVersion("[2.4,2.4]"))
-            .addExport(m_bu.createExportPackage(pPackage)
-                .addUses(qPackage)));
-        Bundle c = m_bu.installBundle(m_bu.createBundleSpecifier("c")
-            .addExport(m_bu.createExportPackage(qPackage).setVersion("2.1")));
-        Bundle d = m_bu.installBundle(m_bu.createBundleSpecifier("d")
-            .addExport(m_bu.createExportPackage(qPackage).setVersion("2.1")));
+        Bundle[] bundles = installBundles(
+            m_bu.createBundleSpecifier("a")
+                .addImport(m_bu.createImportPackage(pPackage))
+                .addImport(m_bu.createImportPackage(qPackage).setVersion("[2.1,2.1]")),
+            m_bu.createBundleSpecifier("b")
+                .addImport(m_bu.createImportPackage(qPackage).setVersion("[2.4,2.4]"))
+                .addExport(m_bu.createExportPackage(pPackage)
+                    .addUses(qPackage)),
+            m_bu.createBundleSpecifier("c")
+                .addExport(m_bu.createExportPackage(qPackage).setVersion("2.1")),
+            m_bu.createBundleSpecifier("d")
+                .addExport(m_bu.createExportPackage(qPackage).setVersion("2.1")));
+        Bundle a = bundles[0];
+        Bundle b = bundles[1];
+        Bundle c = bundles[2];
+        Bundle d = bundles[3];
 
         assert !m_admin.resolveBundles(new Bundle[] { a, b, c, d }) : "This situation should not resolve, due to the uses constraint.";
     }
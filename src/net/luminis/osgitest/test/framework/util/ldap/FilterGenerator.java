@@ -0,0 +1,379 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.framework.util.ldap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lazily generates legal filters, without materializing the set of candidates.
+ * <br />
+ * An operation is a single <code>(attribute filtertype value)</code> clause. Attributes and values
+ * are all strings of up to a given length over a set of characters, skipping the ones that only
+ * consist of whitespace; a value with a '*' is never skipped. For the '=' filtertype, a '*' can be placed before, between and after
+ * the characters of the value. The filtertype "=*" creates a presence filter.
+ * <br />
+ * A filter consists of up to <code>depth</code> nested '&' or '|' clauses, each combining an
+ * operation with the next level; the innermost level is a single operation. Every filter is
+ * generated both as is, and negated with '!'.
+ * <br />
+ * Every candidate has an index, so the candidates can be divided into independent {@link Range}s.
+ * When there are too many candidates to check them all, {@link #sample(long, long, long)} spreads
+ * a number of samples evenly over the depths, and over the candidates of each depth. A range renders its candidates into a single, reused character buffer, and does not allocate
+ * anything per candidate; it should only be used by a single thread.
+ */
+public class FilterGenerator {
+
+    private final char[] m_attributeChars;
+    private final int m_attributeLength;
+    private final String[] m_filterTypes;
+    private final char[] m_valueChars;
+    private final int m_valueLength;
+    private final int m_depth;
+
+    private final long m_attributeCount;
+    private final long[] m_valueCounts;
+    private final long m_operationCount;
+    private final long[] m_depthCounts;
+    private final long m_size;
+    private final int m_maxFilterLength;
+
+    /**
+     * @param attributeChars The characters used to build attributes.
+     * @param attributeLength The maximum length of an attribute.
+     * @param filterTypes The filtertypes to use, eg "=", "~=", "<=", ">=" or "=*".
+     * @param valueChars The characters used to build values.
+     * @param valueLength The maximum length of a value, not counting '*'s.
+     * @param depth The maximum number of nested '&' or '|' clauses.
+     */
+    public FilterGenerator(char[] attributeChars, int attributeLength, String[] filterTypes, char[] valueChars, int valueLength, int depth) {
+        m_attributeChars = attributeChars.clone();
+        m_attributeLength = attributeLength;
+        m_filterTypes = filterTypes.clone();
+        m_valueChars = valueChars.clone();
+        m_valueLength = valueLength;
+        m_depth = depth;
+
+        m_attributeCount = countStrings(attributeChars.length, attributeLength, false);
+        m_valueCounts = new long[filterTypes.length];
+        long valuesPerAttribute = 0;
+        for (int i = 0; i < filterTypes.length; i++) {
+            if (filterTypes[i].equals("=*")) {
+                m_valueCounts[i] = 1;
+            }
+            else {
+                m_valueCounts[i] = countStrings(valueChars.length, valueLength, filterTypes[i].equals("="));
+            }
+            valuesPerAttribute = add(valuesPerAttribute, m_valueCounts[i]);
+        }
+        m_operationCount = multiply(m_attributeCount, valuesPerAttribute);
+
+        // At every depth, a filter has an optional '!', a final operation, and for every level
+        // a choice between '&' and '|' combined with an operation.
+        m_depthCounts = new long[depth + 1];
+        long size = 0;
+        long count = multiply(2, m_operationCount);
+        for (int d = 0; d <= depth; d++) {
+            m_depthCounts[d] = count;
+            size = add(size, count);
+            count = multiply(count, multiply(2, m_operationCount));
+        }
+        m_size = size;
+
+        int maxOperationLength = 1 + attributeLength + 2 + (2 * valueLength + 1) + 1;
+        m_maxFilterLength = 2 + depth * (2 + maxOperationLength + 1) + maxOperationLength + 1;
+    }
+
+    /**
+     * Returns the number of candidates, including the ones that are skipped for being all whitespace.
+     */
+    public long size() {
+        return m_size;
+    }
+
+    /**
+     * Returns a range over the candidates with index <code>from</code> (inclusive) to <code>to</code> (exclusive).
+     */
+    public Range range(long from, long to) {
+        return new Range(from, Math.min(to, m_size));
+    }
+
+    /**
+     * Returns a range over the samples with number <code>from</code> (inclusive) to <code>to</code>
+     * (exclusive), out of <code>count</code> samples. Every depth gets the same share of the samples,
+     * taken at equal distances from its candidates, so deeply nested filters are checked as well as
+     * the simple ones that come first in the index.
+     */
+    public Range sample(long from, long to, long count) {
+        return new Range(from, Math.min(to, count), count);
+    }
+
+    /**
+     * Returns the index of a sample, or -1 if its depth has fewer candidates than samples.
+     */
+    long sampleIndex(long sample, long count) {
+        int depths = m_depthCounts.length;
+        long start = 0;
+        for (int depth = 0; depth < depths; depth++) {
+            long share = (count / depths) + ((depth < count % depths) ? 1 : 0);
+            if (sample < share) {
+                long stride = Math.max(1, m_depthCounts[depth] / share);
+                // An odd stride alternates between plain and negated filters.
+                if ((stride > 1) && (stride % 2 == 0)) {
+                    stride--;
+                }
+                return (sample < m_depthCounts[depth] / stride) ? start + sample * stride : -1;
+            }
+            sample -= share;
+            start += m_depthCounts[depth];
+        }
+        return -1;
+    }
+
+    /**
+     * Divides all candidates over a number of ranges of (about) equal size.
+     */
+    public List<Range> split(int parts) {
+        List<Range> result = new ArrayList<Range>();
+        long step = (m_size + parts - 1) / parts;
+        for (long from = 0; from < m_size; from += step) {
+            result.add(range(from, from + step));
+        }
+        return result;
+    }
+
+    /**
+     * Renders the candidate with the given index into the buffer.
+     * @return The length of the filter, or -1 if the candidate should be skipped.
+     */
+    int render(long index, char[] buffer) {
+        int depth = 0;
+        while (index >= m_depthCounts[depth]) {
+            index -= m_depthCounts[depth];
+            depth++;
+        }
+        boolean negate = (index % 2) == 1;
+        index /= 2;
+        long last = index % m_operationCount;
+        index /= m_operationCount;
+
+        int pos = 0;
+        if (negate) {
+            buffer[pos++] = '(';
+            buffer[pos++] = '!';
+        }
+        for (int level = 0; level < depth; level++) {
+            buffer[pos++] = '(';
+            buffer[pos++] = ((index % 2) == 0) ? '&' : '|';
+            index /= 2;
+            pos = renderOperation(index % m_operationCount, buffer, pos);
+            if (pos < 0) {
+                return -1;
+            }
+            index /= m_operationCount;
+        }
+        pos = renderOperation(last, buffer, pos);
+        if (pos < 0) {
+            return -1;
+        }
+        for (int level = 0; level < depth; level++) {
+            buffer[pos++] = ')';
+        }
+        if (negate) {
+            buffer[pos++] = ')';
+        }
+        return pos;
+    }
+
+    private int renderOperation(long index, char[] buffer, int pos) {
+        long valuesPerAttribute = m_operationCount / m_attributeCount;
+        long attribute = index / valuesPerAttribute;
+        long value = index % valuesPerAttribute;
+        int filterType = 0;
+        while (value >= m_valueCounts[filterType]) {
+            value -= m_valueCounts[filterType];
+            filterType++;
+        }
+
+        buffer[pos++] = '(';
+        pos = renderString(attribute, m_attributeChars, false, buffer, pos);
+        if (pos < 0) {
+            return -1;
+        }
+        String type = m_filterTypes[filterType];
+        for (int i = 0; i < type.length(); i++) {
+            buffer[pos++] = type.charAt(i);
+        }
+        if (!type.equals("=*")) {
+            pos = renderString(value, m_valueChars, type.equals("="), buffer, pos);
+            if (pos < 0) {
+                return -1;
+            }
+        }
+        buffer[pos++] = ')';
+        return pos;
+    }
+
+    /**
+     * Renders the string with the given index from the strings of length 1 to the maximum length,
+     * optionally including a '*' before, between and after the characters.
+     * @return The new position in the buffer, or -1 if the string only consists of whitespace, without any '*'.
+     */
+    private int renderString(long index, char[] chars, boolean stars, char[] buffer, int pos) {
+        int length = 1;
+        long count = countStringsOfLength(chars.length, length, stars);
+        while (index >= count) {
+            index -= count;
+            length++;
+            count = countStringsOfLength(chars.length, length, stars);
+        }
+        long starMask = 0;
+        if (stars) {
+            starMask = index % (1L << (length + 1));
+            index /= (1L << (length + 1));
+        }
+
+        // An inserted '*' counts as content, so values like "* " are kept, as they always were.
+        boolean onlyWhitespace = (starMask == 0);
+        for (int i = 0; i < length; i++) {
+            if ((starMask & (1L << i)) != 0) {
+                buffer[pos++] = '*';
+            }
+            char c = chars[(int) (index % chars.length)];
+            index /= chars.length;
+            onlyWhitespace &= Character.isWhitespace(c);
+            buffer[pos++] = c;
+        }
+        if ((starMask & (1L << length)) != 0) {
+            buffer[pos++] = '*';
+        }
+        return onlyWhitespace ? -1 : pos;
+    }
+
+    private static long countStrings(int chars, int maxLength, boolean stars) {
+        long result = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            result = add(result, countStringsOfLength(chars, length, stars));
+        }
+        return result;
+    }
+
+    private static long countStringsOfLength(int chars, int length, boolean stars) {
+        if (stars && (length + 1 > 62)) {
+            throw new IllegalArgumentException("Too many candidates to index.");
+        }
+        long result = stars ? (1L << (length + 1)) : 1;
+        for (int i = 0; i < length; i++) {
+            result = multiply(result, chars);
+        }
+        return result;
+    }
+
+    private static long add(long a, long b) {
+        if (a > Long.MAX_VALUE - b) {
+            throw new IllegalArgumentException("Too many candidates to index.");
+        }
+        return a + b;
+    }
+
+    private static long multiply(long a, long b) {
+        if ((a != 0) && (b > Long.MAX_VALUE / a)) {
+            throw new IllegalArgumentException("Too many candidates to index.");
+        }
+        return a * b;
+    }
+
+    /**
+     * A range of candidates, iterated using {@link #next()}.
+     */
+    public class Range {
+        private final long m_from;
+        private final long m_to;
+        private final long m_samples;
+        private final char[] m_buffer = new char[m_maxFilterLength];
+        private long m_next;
+        private long m_index = -1;
+        private int m_length;
+
+        Range(long from, long to) {
+            this(from, to, 0);
+        }
+
+        /**
+         * @param samples The total number of samples, when <code>from</code> and <code>to</code> are sample numbers; 0 for indices.
+         */
+        Range(long from, long to, long samples) {
+            m_from = from;
+            m_to = to;
+            m_samples = samples;
+            m_next = from;
+        }
+
+        /**
+         * Moves to the next candidate in this range, skipping the ones that only consist of whitespace.
+         * @return <code>false</code> if this range has been exhausted.
+         */
+        public boolean next() {
+            while (m_next < m_to) {
+                m_index = (m_samples == 0) ? m_next++ : sampleIndex(m_next++, m_samples);
+                if (m_index < 0) {
+                    continue;
+                }
+                m_length = render(m_index, m_buffer);
+                if (m_length >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the buffer containing the current filter; it is overwritten by {@link #next()}.
+         */
+        public char[] buffer() {
+            return m_buffer;
+        }
+
+        public int length() {
+            return m_length;
+        }
+
+        /**
+         * Returns the index of the current filter.
+         */
+        public long index() {
+            return m_index;
+        }
+
+        /**
+         * Returns the current filter as a string.
+         */
+        public String filter() {
+            return new String(m_buffer, 0, m_length);
+        }
+
+        public long from() {
+            return m_from;
+        }
+
+        public long to() {
+            return m_to;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Vector;
 
+import net.luminis.osgitest.test.support.SpecSectionRunner;
 import net.luminis.osgitest.testhelper.OSGiSpec;
 import net.luminis.osgitest.testhelper.OSGiVersionSpecs;
 import net.luminis.osgitest.testhelper.TestBase;
@@ -30,12 +31,14 @@ import net.luminis.osgitest.testhelper.TestBase;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.runner.RunWith;
 import org.osgi.framework.InvalidSyntaxException;
 
 /**
  * Tests the framework's filter implementation. Focus on comparison types.
  *
  */
+@RunWith(SpecSectionRunner.class)
 public class FrameworkFilterDictionaryTest extends TestBase {
 
     private Dictionary<String, Object> dict = null;
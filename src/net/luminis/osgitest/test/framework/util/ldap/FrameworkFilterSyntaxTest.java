@@ -18,30 +18,41 @@
  */
 package net.luminis.osgitest.test.framework.util.ldap;
 
-import java.util.Arrays;
-import java.util.Collection;
 import java.util.Dictionary;
-import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.Set;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.luminis.osgitest.test.support.SpecSectionRunner;
 import net.luminis.osgitest.testhelper.OSGiSpec;
 import net.luminis.osgitest.testhelper.OSGiVersionSpecs;
 import net.luminis.osgitest.testhelper.TestBase;
 
 import org.junit.Ignore;
 import org.junit.Test;
+import org.junit.runner.RunWith;
 import org.osgi.framework.InvalidSyntaxException;
 
 /**
  * Tests the framework's filter implementation, focusing on the syntax checking.
+ * <br />
+ * The long running sweeps check their filters on a single thread, unless the system property
+ * {@link #PROP_THREADS} asks for more.
  */
+@RunWith(SpecSectionRunner.class)
 public class FrameworkFilterSyntaxTest extends TestBase {
+
+    public static final String PROP_THREADS = "net.luminis.osgitest.filter.threads";
+
     /*
      * Some setup
      */
     private final Dictionary dict = new Hashtable();
 
+    private static final String[] WHITESPACE = {"", "\t" /*tab*/, "\n" /*linefeed*/, "\u000B" /*vertical tab*/,
+        "\f" /*formfeed*/, "\r" /*carriage return*/, "\u001C" /*file separator*/,
+        "\u001D" /*group separator*/, "\u001E" /*record separator*/, "\u001F" /*unit separator*//*, "\b" backspace*/};
+
 
     /*
      * Actual tests
@@ -229,33 +240,34 @@ public class FrameworkFilterSyntaxTest extends TestBase {
         @OSGiSpec(version="4.1", sections={"3.2.6"}),
         @OSGiSpec(version="4.2", sections={"3.2.7"})
     })
-    public void testWhitespaceHandling() throws InvalidSyntaxException {
+    public void testWhitespaceHandling() throws Exception {
 
         testWhitespaceHandlingHelper("\t\t", "", "\t\t");
 
-        String[] whiteSpace = {"", "\t" /*tab*/, "\n" /*linefeed*/, "\u000B" /*vertical tab*/,
-            "\f" /*formfeed*/, "\r" /*carriage return*/, "\u001C" /*file separator*/,
-            "\u001D" /*group separator*/, "\u001E" /*record separator*/, "\u001F" /*unit separator*//*, "\b" backspace*/};
-        //Create combinations of up to two whitespace characters for each position.
+        //Create combinations of up to two whitespace characters for each position, and check them.
+        long size = (long) Math.pow(WHITESPACE.length, 6);
         long startTime = System.currentTimeMillis();
-        long counter = 0;
-        for (String leading1 : whiteSpace) {
-            for (String leading2 : whiteSpace) {
-                for (String embedded1 : whiteSpace) {
-                    for (String embedded2 : whiteSpace) {
-                        for (String trailing1 : whiteSpace) {
-                            for (String trailing2 : whiteSpace) {
-                                testWhitespaceHandlingHelper(leading1+leading2, embedded1+embedded2, trailing1+trailing2);
-                                if ((counter++ % 10000) == 0) {
-                                    System.err.println(counter/10000+"%");
-                                }
-                            }
-                        }
+        ParallelFilterSweep.Result result = new ParallelFilterSweep(getSweepThreads()).run(size, new ParallelFilterSweep.Checker() {
+            public long check(long from, long to, List<String> failures) throws Exception {
+                for (long index = from; index < to; index++) {
+                    String[] ws = new String[6];
+                    long rest = index;
+                    for (int i = 0; i < ws.length; i++) {
+                        ws[i] = WHITESPACE[(int) (rest % WHITESPACE.length)];
+                        rest /= WHITESPACE.length;
+                    }
+                    try {
+                        testWhitespaceHandlingHelper(ws[0] + ws[1], ws[2] + ws[3], ws[4] + ws[5]);
+                    }
+                    catch (AssertionError e) {
+                        failures.add(e.getMessage());
                     }
                 }
+                return to - from;
             }
-        }
-        System.err.println("Ran 1 000 000 filters for whitespace handling in " + (System.currentTimeMillis() - startTime) + " ms.");
+        });
+        System.err.println("Ran " + result.getChecked() + " filters for whitespace handling in " + (System.currentTimeMillis() - startTime) + " ms.");
+        assert result.getFailures().isEmpty() : result.describeFailures();
     }
 
     /**
@@ -328,8 +340,8 @@ public class FrameworkFilterSyntaxTest extends TestBase {
         @OSGiSpec(version="4.1", sections={"3.2.6"}),
         @OSGiSpec(version="4.2", sections={"3.2.7"})
     })
-    public void testALotPerformance() throws InvalidSyntaxException {
-        testALot(1, 2, 1, -2);
+    public void testALotPerformance() throws Exception {
+        testALot(1, 2, 1, -2, getSweepThreads());
     }
 
     /**
@@ -341,8 +353,30 @@ public class FrameworkFilterSyntaxTest extends TestBase {
         @OSGiSpec(version="4.1", sections={"3.2.6"}),
         @OSGiSpec(version="4.2", sections={"3.2.7"})
     })
-    public void testALotIntegration() throws InvalidSyntaxException {
-        testALot(2, 2, 2, 1000);
+    public void testALotIntegration() throws Exception {
+        testALot(2, 2, 2, 1000, 1);
+    }
+
+    /**
+     * Tests allowable filters from all cores at the same time; filters should be
+     * thread safe, so this should give the same results as testALotIntegration.
+     */
+    @Test
+    @OSGiVersionSpecs({
+        @OSGiSpec(version="4.1", sections={"3.2.6"}),
+        @OSGiSpec(version="4.2", sections={"3.2.7"})
+    })
+    public void testALotConcurrent() throws Exception {
+        testALot(2, 2, 2, 20000, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the number of threads for the long running sweeps, as set by {@link #PROP_THREADS};
+     * <code>0</code> uses the number of processors. Defaults to a single thread.
+     */
+    private static int getSweepThreads() {
+        int threads = Integer.getInteger(PROP_THREADS, 1);
+        return (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
     }
 
     /**
@@ -352,24 +386,75 @@ public class FrameworkFilterSyntaxTest extends TestBase {
      * @throws InvalidSyntaxException
      * @param attributeLength The maximum length of a single attribute, including
      * whitespace characters.
-     * @param attributeLength The maximum length of a single value, including
+     * @param valueLength The maximum length of a single value, including
      * whitespace characters.
-     * @param filterLength The maximum number of clauses in a single filter.
+     * @param filterLength The maximum number of nested clauses in a single filter.
+     * @param maxFilterCount The maximum number of candidate filters, spread over all depths of nesting,
+     * or a negative number to test them all. Candidates with an attribute or value of only whitespace are
+     * skipped, so fewer filters are actually tested.
+     * @param threads The number of threads testing filters at the same time.
      */
-    private void testALot(int attributeLength, int valueLength, int filterLength, int maxFilterCount) throws InvalidSyntaxException {
-        // Generate a load of legal, single-operation operations, possibly including special characters.
-        Set<String> params = new HashSet<String>(Arrays.asList(new String[] {"a","b"," ", "\t", "\n"}));
-        Set<String> filtertypes = new HashSet<String>(Arrays.asList(new String[] {"=", "~=", "<=", ">="}));
-        Set<String> allOperations = generateOperations(filtertypes, params, attributeLength, params, valueLength);
-
-        // Test all possible combinations of filters using these characters, using timing.
+    private void testALot(int attributeLength, int valueLength, int filterLength, final int maxFilterCount, int threads) throws Exception {
+        // Generate legal filters, possibly including special characters.
+        final FilterGenerator generator = createGenerator(attributeLength, valueLength, filterLength);
+        final boolean sampled = (maxFilterCount >= 0) && (maxFilterCount < generator.size());
+        long size = sampled ? maxFilterCount : generator.size();
+        final AtomicLong nested = new AtomicLong();
+
+        // Test all of them, using timing.
         long startTime = System.currentTimeMillis();
-        Counter counter = new Counter(maxFilterCount/2);
-        testComplexFilters(allOperations, filterLength, "", "", counter);
+        ParallelFilterSweep.Result result = new ParallelFilterSweep(threads).run(size, new ParallelFilterSweep.Checker() {
+            public long check(long from, long to, List<String> failures) throws Exception {
+                return testFilterSyntax(sampled ? generator.sample(from, to, maxFilterCount) : generator.range(from, to), failures, nested);
+            }
+        });
         long endTime = System.currentTimeMillis();
-        System.err.printf("testALot(%d, %d, %d, %d): Parsed %d filters in %d ms.\n", attributeLength, valueLength, filterLength, maxFilterCount, (counter.start < 0 ? -1 * counter.counter : counter.start*2), endTime - startTime);
+        System.err.printf("testALot(%d, %d, %d, %d): Parsed %d filters, %d of them nested, on %d threads in %d ms.\n", attributeLength, valueLength, filterLength, maxFilterCount, result.getChecked(), nested.get(), threads, endTime - startTime);
+        assert result.getFailures().isEmpty() : result.describeFailures();
+        assert (filterLength == 0) || (nested.get() > 0) : "No nested filters were tested.";
+    }
+
+    /**
+     * Tests whether all filters in a range are allowed, collecting the failures.
+     * @param nested Counts the tested filters with nested '&' or '|' clauses.
+     * @return The number of filters tested.
+     */
+    private long testFilterSyntax(FilterGenerator.Range range, List<String> failures, AtomicLong nested) throws InvalidSyntaxException {
+        long count = 0;
+        long nestedCount = 0;
+        while (range.next()) {
+            count++;
+            if (isNested(range.buffer(), range.length())) {
+                nestedCount++;
+            }
+            try {
+                testFilterSyntax(range.filter(), true, "Is valid syntax, but creates an error.");
+            }
+            catch (AssertionError e) {
+                failures.add(e.getMessage());
+            }
+        }
+        nested.addAndGet(nestedCount);
+        return count;
+    }
+
+    private static boolean isNested(char[] filter, int length) {
+        for (int i = 0; i + 1 < length; i++) {
+            if ((filter[i] == '(') && ((filter[i + 1] == '&') || (filter[i + 1] == '|'))) {
+                return true;
+            }
+        }
+        return false;
     }
 
+    /**
+     * Creates a generator for the filters used by testALot.
+     */
+    public static FilterGenerator createGenerator(int attributeLength, int valueLength, int filterLength) {
+        char[] chars = {'a', 'b', ' ', '\t', '\n'};
+        String[] filtertypes = {"=", "~=", "<=", ">="};
+        return new FilterGenerator(chars, attributeLength, filtertypes, chars, valueLength, filterLength);
+    }
 
     /**
      * Helper function to test whether or not a certain filter is allowed.
@@ -436,127 +521,4 @@ public class FrameworkFilterSyntaxTest extends TestBase {
         testFilterSyntax("(" + operator + "(a=b))", true, "(" + operator + "(a=b)) is allowed, since " + operator + " allows a single filter.");
         testFilterSyntax("(" + operator + "(a=b)(b=c))", !isUnary, "(" + operator + "(a=b)(b=c)) is " + (isUnary ? "not" : "") + " allowed, since " + operator + " is " + (isUnary ? "" : "not") + " unary.");
     }
-
-    /**
-     * Returns a string array of all possible (legal) operations ((a=b)-like stuff)
-     * using the operators, and using all possible combinations of up to two special characters.
-     * It will automatically use * characters in the value at legal locations.
-     * @param filtertypes
-     * @param charsForAttribute
-     * @param charsForValue
-     * @return
-     */
-    private Set<String> generateOperations(Collection<String> filtertypes, Collection<String> charsForAttribute, int attLength, Collection<String> charsForValue, int valLength) {
-        Set<String> allOperations = new HashSet<String>();
-        Set<String> allValuesWithSubstring = createPermutations(charsForValue, valLength, true);
-        Set<String> allValuesWithoutSubstring = createPermutations(charsForValue, valLength, false);
-        for (String att : createPermutations(charsForAttribute, attLength, false)) {
-            for (String fil : filtertypes) {
-                if (fil.equals("=")) {
-                    //Substrings are only allowed using '='
-                    for (String val : allValuesWithSubstring) {
-                        allOperations.add("("+att+fil+val+")");
-                    }
-                }
-                else if (fil.equals("=*")) {
-                    allOperations.add("("+att+fil);
-                }
-                else {
-                    for (String val : allValuesWithoutSubstring) {
-                        allOperations.add("("+att+fil+val+")");
-                    }
-                }
-            }
-        }
-
-        return allOperations;
-    }
-
-    /**
-     * Creates all possible permutations of input, up to a length of maxLength. useSmartStar will
-     * insert a start at all allowable locations (so don't use * in input).
-     */
-    private Set<String> createPermutations(Collection<String> charsForValue, int maxLength, boolean useSmartStar) {
-        Set<String> allPermutations = new HashSet<String>();
-        if (maxLength == 1) {
-            for (String s : charsForValue) {
-                allPermutations.add(s);
-                if (useSmartStar) {
-                    allPermutations.add(s+"*");
-                    allPermutations.add("*"+s);
-                    allPermutations.add("*"+s+"*");
-                }
-            }
-        }
-        else
-        {
-            Set<String> theRest = createPermutations(charsForValue, maxLength - 1, useSmartStar);
-            for (String s : charsForValue) {
-                for (String t : theRest) {
-                    allPermutations.add(s + t);
-                    if (useSmartStar) {
-                        allPermutations.add("*" + s + t);
-                    }
-                }
-            }
-            allPermutations.addAll(theRest);
-        }
-
-        //Remove stuff only consisting of whitespace
-        Set <String> toRemove = new HashSet<String>();
-        for (String s : allPermutations) {
-            boolean onlyWhitespace = true;
-            for (char c : s.toCharArray()) {
-                if (!Character.isWhitespace(c)) {
-                    onlyWhitespace = false;
-                }
-            }
-            if ( onlyWhitespace ) {
-                toRemove.add(s);
-            }
-        }
-        allPermutations.removeAll(toRemove);
-
-        return allPermutations;
-    }
-
-    /**
-     * Tests all filter combinations based on the operation passed, up to a given nr. of clauses.
-     * Note that the actually created clauses can be longer, because filters are used to construct
-     * new filters.
-     * pre and post are used internally.
-     * @param maxCount TODO
-     */
-    private void testComplexFilters(Set<String> operations, int lengthToGo, String pre, String post, Counter counter) throws InvalidSyntaxException {
-        if (counter.counter == 0) {
-            return;
-        }
-        if (lengthToGo == 0) {
-            for (String filter : operations)
-            {
-                if (counter.counter == 0) {
-                    return;
-                }
-                counter.counter--;
-                testFilterSyntax(pre + filter + post, true, "Is valid syntax, but creates an error.");
-                testFilterSyntax("(!" + pre + filter + post + ")", true, "Is valid syntax, but creates an error.");
-            }
-        }
-        else {
-            for (String operation : operations) {
-                testComplexFilters(operations, lengthToGo - 1, pre + "(&" + operation, ")" + post, counter);
-                testComplexFilters(operations, lengthToGo - 1, pre + "(|" + operation, ")" + post, counter);
-                testComplexFilters(operations, 0, pre, post, counter);
-            }
-        }
-    }
-
-    private static class Counter {
-        long counter;
-        long start;
-
-        public Counter(long initial) {
-            start = counter = initial;
-        }
-    }
 }
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.framework.util.ldap;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks a space of indexed candidates, such as the filters of a {@link FilterGenerator}, using
+ * a number of threads. The space is cut into many more chunks than there are threads, and idle
+ * threads take the next chunk from the queue of the executor; this keeps all threads busy when
+ * some chunks take longer than others.
+ * <br />
+ * Every chunk collects its failures in its own list, and the lists are merged in order once all
+ * chunks are done, so the checks never contend on a shared collection. Only the first
+ * {@link #MAX_FAILURES} failures of a chunk, and of the whole sweep, are kept; the others are
+ * only counted, so a framework that fails every check does not fill the heap with messages.
+ * <br />
+ * With a single thread, all candidates are checked in one range on the calling thread.
+ */
+public class ParallelFilterSweep {
+
+    private static final int CHUNKS_PER_THREAD = 16;
+
+    /**
+     * The number of failure descriptions kept per chunk, and for the whole sweep.
+     */
+    public static final int MAX_FAILURES = 100;
+
+    /**
+     * Checks a range of candidates.
+     */
+    public interface Checker {
+        /**
+         * Checks the candidates with index <code>from</code> (inclusive) to <code>to</code> (exclusive).
+         * @param failures A list only used by this invocation, to which a description of each failure is added;
+         * it only keeps the first {@link ParallelFilterSweep#MAX_FAILURES} of them.
+         * @return The number of candidates checked.
+         */
+        long check(long from, long to, List<String> failures) throws Exception;
+    }
+
+    private final int m_threads;
+
+    public ParallelFilterSweep(int threads) {
+        m_threads = threads;
+    }
+
+    /**
+     * Checks the candidates with index 0 (inclusive) to <code>size</code> (exclusive).
+     */
+    public Result run(long size, final Checker checker) throws Exception {
+        if (m_threads <= 1) {
+            CappedList failures = new CappedList();
+            return new Result(checker.check(0, size, failures), failures, failures.getCount());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(m_threads);
+        try {
+            long chunk = Math.max(1, (size + m_threads * CHUNKS_PER_THREAD - 1) / (m_threads * CHUNKS_PER_THREAD));
+            List<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (long from = 0; from < size; from += chunk) {
+                final long start = from;
+                final long end = Math.min(from + chunk, size);
+                futures.add(executor.submit(new Callable<Result>() {
+                    public Result call() throws Exception {
+                        CappedList failures = new CappedList();
+                        return new Result(checker.check(start, end, failures), failures, failures.getCount());
+                    }
+                }));
+            }
+
+            long checked = 0;
+            long failureCount = 0;
+            List<String> failures = new ArrayList<String>();
+            for (Future<Result> future : futures) {
+                try {
+                    Result result = future.get();
+                    checked += result.getChecked();
+                    failureCount += result.getFailureCount();
+                    List<String> chunkFailures = result.getFailures();
+                    failures.addAll(chunkFailures.subList(0, Math.min(chunkFailures.size(), MAX_FAILURES - failures.size())));
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw (Exception) e.getCause();
+                }
+            }
+            return new Result(checked, failures, failureCount);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The outcome of a sweep.
+     */
+    public static class Result {
+        private final long m_checked;
+        private final List<String> m_failures;
+        private final long m_failureCount;
+
+        Result(long checked, List<String> failures, long failureCount) {
+            m_checked = checked;
+            m_failures = failures;
+            m_failureCount = failureCount;
+        }
+
+        public long getChecked() {
+            return m_checked;
+        }
+
+        /**
+         * Returns the descriptions of the first {@link ParallelFilterSweep#MAX_FAILURES} failures.
+         */
+        public List<String> getFailures() {
+            return m_failures;
+        }
+
+        /**
+         * Returns the number of failures, including the ones whose description was not kept.
+         */
+        public long getFailureCount() {
+            return m_failureCount;
+        }
+
+        /**
+         * Returns a description of the first few failures.
+         */
+        public String describeFailures() {
+            StringBuilder result = new StringBuilder();
+            result.append(m_failureCount).append(" of ").append(m_checked).append(" checks failed");
+            for (int i = 0; i < Math.min(10, m_failures.size()); i++) {
+                result.append("\n    ").append(m_failures.get(i));
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * A list that keeps the first {@link ParallelFilterSweep#MAX_FAILURES} elements added to it, and counts the rest.
+     */
+    private static class CappedList extends AbstractList<String> {
+        private final List<String> m_elements = new ArrayList<String>();
+        private long m_count = 0;
+
+        @Override
+        public boolean add(String element) {
+            m_count++;
+            if (m_elements.size() < MAX_FAILURES) {
+                m_elements.add(element);
+            }
+            return true;
+        }
+
+        @Override
+        public String get(int index) {
+            return m_elements.get(index);
+        }
+
+        @Override
+        public int size() {
+            return m_elements.size();
+        }
+
+        long getCount() {
+            return m_count;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A small benchmark harness that runs inside the framework under test, so the numbers reflect the
+ * vendor's implementation. An operation is first run for a number of warmup iterations, after which
+ * the measured iterations determine the throughput. Each iteration calls the operation for a fixed
+ * amount of time.
+ * <br />
+ * Next to the throughput, the bytes allocated by the measuring thread and the garbage collections
+ * during the measured iterations are recorded, when the JVM offers this information.
+ * <br />
+ * {@link #measureConcurrent(String, Map, int, Operation)} runs an operation on several threads at the
+ * same time, and also records the latency of every call, and how often the threads were blocked.
+ * <br />
+ * The number and length of the iterations can be set with the system properties
+ * {@link #PROP_WARMUP_ITERATIONS}, {@link #PROP_ITERATIONS} and {@link #PROP_ITERATION_TIME} (in ms).
+ */
+public class Benchmark {
+
+    public static final String PROP_WARMUP_ITERATIONS = "net.luminis.osgitest.benchmark.warmup";
+    public static final String PROP_ITERATIONS = "net.luminis.osgitest.benchmark.iterations";
+    public static final String PROP_ITERATION_TIME = "net.luminis.osgitest.benchmark.time";
+
+    /**
+     * A single benchmarked operation.
+     */
+    public interface Operation {
+        /**
+         * Runs the operation once, and returns some value depending on its outcome, so the work
+         * cannot be optimized away.
+         */
+        int run() throws Exception;
+    }
+
+    private final int m_warmupIterations;
+    private final int m_iterations;
+    private final long m_iterationTime;
+    private volatile int m_sink;
+
+    public Benchmark() {
+        this(Integer.getInteger(PROP_WARMUP_ITERATIONS, 2),
+            Integer.getInteger(PROP_ITERATIONS, 5),
+            Long.getLong(PROP_ITERATION_TIME, 200));
+    }
+
+    public Benchmark(int warmupIterations, int iterations, long iterationTime) {
+        m_warmupIterations = warmupIterations;
+        m_iterations = iterations;
+        m_iterationTime = iterationTime;
+    }
+
+    public int getWarmupIterations() {
+        return m_warmupIterations;
+    }
+
+    public int getIterations() {
+        return m_iterations;
+    }
+
+    /**
+     * Measures the throughput of an operation.
+     * @param name The name of the benchmark.
+     * @param params The parameters this run of the benchmark uses, for reporting.
+     * @param operation The operation to measure.
+     */
+    public Result measure(String name, Map<String, Object> params, Operation operation) throws Exception {
+        for (int i = 0; i < m_warmupIterations; i++) {
+            runIteration(operation);
+        }
+
+        long allocatedBefore = getAllocatedBytes();
+        long gcCountBefore = getGcCount();
+        long gcTimeBefore = getGcTime();
+
+        double[] opsPerSecond = new double[m_iterations];
+        long totalOps = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < m_iterations; i++) {
+            long start = System.nanoTime();
+            long ops = runIteration(operation);
+            long nanos = System.nanoTime() - start;
+            opsPerSecond[i] = ops * 1e9 / nanos;
+            totalOps += ops;
+            totalNanos += nanos;
+        }
+
+        long allocatedAfter = getAllocatedBytes();
+        Result result = new Result(name, params, opsPerSecond, totalOps, totalNanos);
+        if ((allocatedBefore >= 0) && (allocatedAfter >= 0)) {
+            result.m_allocatedBytes = allocatedAfter - allocatedBefore;
+        }
+        result.m_gcCount = getGcCount() - gcCountBefore;
+        result.m_gcTime = getGcTime() - gcTimeBefore;
+        return result;
+    }
+
+    /**
+     * Measures the throughput and latency of an operation that is called from a number of threads at the same time.
+     * Next to the usual information, the result has the metrics <code>p50Us</code>, <code>p99Us</code> and
+     * <code>maxUs</code> for the latency of a single call, and <code>blockedPerOp</code>, <code>blockedMs</code>
+     * and <code>waitedPerOp</code> for the contention between the threads, when the JVM can monitor it.
+     * @param threads The number of threads calling the operation.
+     * @param operation The operation to measure; it should be thread safe.
+     */
+    public Result measureConcurrent(String name, Map<String, Object> params, int threads, Operation operation) throws Exception {
+        // Contention monitoring slows down all threads, so it is only switched on while measuring.
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        boolean monitoring = bean.isThreadContentionMonitoringSupported() && bean.isThreadContentionMonitoringEnabled();
+        if (bean.isThreadContentionMonitoringSupported()) {
+            bean.setThreadContentionMonitoringEnabled(true);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int i = 0; i < m_warmupIterations; i++) {
+                runConcurrentIteration(executor, threads, operation);
+            }
+
+            long gcCountBefore = getGcCount();
+            long gcTimeBefore = getGcTime();
+
+            double[] opsPerSecond = new double[m_iterations];
+            long totalOps = 0;
+            long totalNanos = 0;
+            long allocated = 0;
+            long blockedCount = 0;
+            long blockedTime = 0;
+            long waitedCount = 0;
+            LatencyHistogram latencies = new LatencyHistogram();
+            for (int i = 0; i < m_iterations; i++) {
+                long ops = 0;
+                long start = Long.MAX_VALUE;
+                long end = Long.MIN_VALUE;
+                for (Worker worker : runConcurrentIteration(executor, threads, operation)) {
+                    ops += worker.m_ops;
+                    start = Math.min(start, worker.m_start);
+                    end = Math.max(end, worker.m_end);
+                    allocated = ((allocated < 0) || (worker.m_allocated < 0)) ? -1 : allocated + worker.m_allocated;
+                    blockedCount += worker.m_blockedCount;
+                    blockedTime = ((blockedTime < 0) || (worker.m_blockedTime < 0)) ? -1 : blockedTime + worker.m_blockedTime;
+                    waitedCount += worker.m_waitedCount;
+                    latencies.add(worker.m_latencies);
+                }
+                opsPerSecond[i] = ops * 1e9 / (end - start);
+                totalOps += ops;
+                totalNanos += end - start;
+            }
+
+            Result result = new Result(name, params, opsPerSecond, totalOps, totalNanos);
+            result.m_allocatedBytes = allocated;
+            result.m_gcCount = getGcCount() - gcCountBefore;
+            result.m_gcTime = getGcTime() - gcTimeBefore;
+            result.addMetric("threads", threads);
+            result.addMetric("p50Us", latencies.getPercentile(0.5) / 1000.0);
+            result.addMetric("p99Us", latencies.getPercentile(0.99) / 1000.0);
+            result.addMetric("maxUs", latencies.getMax() / 1000.0);
+            result.addMetric("blockedPerOp", (double) blockedCount / totalOps);
+            result.addMetric("blockedMs", blockedTime);
+            result.addMetric("waitedPerOp", (double) waitedCount / totalOps);
+            return result;
+        }
+        finally {
+            executor.shutdownNow();
+            if (bean.isThreadContentionMonitoringSupported()) {
+                bean.setThreadContentionMonitoringEnabled(monitoring);
+            }
+        }
+    }
+
+    private List<Worker> runConcurrentIteration(ExecutorService executor, int threads, Operation operation) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        List<Future<Worker>> futures = new ArrayList<Future<Worker>>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Worker(barrier, operation)));
+        }
+        List<Worker> result = new ArrayList<Worker>();
+        for (Future<Worker> future : futures) {
+            try {
+                result.add(future.get());
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw (Exception) e.getCause();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Calls the operation from a single thread during a concurrent iteration.
+     */
+    private class Worker implements Callable<Worker> {
+        private final CyclicBarrier m_barrier;
+        private final Operation m_operation;
+        private final LatencyHistogram m_latencies = new LatencyHistogram();
+        private long m_ops;
+        private long m_start;
+        private long m_end;
+        private long m_allocated;
+        private long m_blockedCount;
+        private long m_blockedTime;
+        private long m_waitedCount;
+
+        Worker(CyclicBarrier barrier, Operation operation) {
+            m_barrier = barrier;
+            m_operation = operation;
+        }
+
+        public Worker call() throws Exception {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            long id = Thread.currentThread().getId();
+            m_barrier.await();
+
+            ThreadInfo before = bean.getThreadInfo(id);
+            long allocatedBefore = getAllocatedBytes();
+            int sink = 0;
+            m_start = System.nanoTime();
+            long end = m_start + m_iterationTime * 1000000L;
+            long now = m_start;
+            while (now < end) {
+                long start = now;
+                sink += m_operation.run();
+                now = System.nanoTime();
+                m_latencies.record(now - start);
+                m_ops++;
+            }
+            m_end = now;
+            long allocatedAfter = getAllocatedBytes();
+            ThreadInfo after = bean.getThreadInfo(id);
+
+            m_allocated = ((allocatedBefore < 0) || (allocatedAfter < 0)) ? -1 : allocatedAfter - allocatedBefore;
+            m_blockedCount = after.getBlockedCount() - before.getBlockedCount();
+            m_blockedTime = ((before.getBlockedTime() < 0) || (after.getBlockedTime() < 0)) ? -1 : after.getBlockedTime() - before.getBlockedTime();
+            m_waitedCount = after.getWaitedCount() - before.getWaitedCount();
+            m_sink += sink;
+            return this;
+        }
+    }
+
+    private long runIteration(Operation operation) throws Exception {
+        long ops = 0;
+        int sink = 0;
+        long end = System.nanoTime() + m_iterationTime * 1000000L;
+        do {
+            // Check the clock once per batch, so reading it does not dominate short operations.
+            for (int i = 0; i < 16; i++) {
+                sink += operation.run();
+            }
+            ops += 16;
+        } while (System.nanoTime() < end);
+        m_sink += sink;
+        return ops;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far, or -1 if the
+     * JVM does not support this. The method is not part of the standard management API,
+     * so it is looked up on the interfaces of the bean itself; this keeps the framework from
+     * having to resolve the vendor specific interface for us.
+     */
+    public static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        for (Class<?> iface : bean.getClass().getInterfaces()) {
+            try {
+                Method method = iface.getMethod("getThreadAllocatedBytes", long.class);
+                return (Long) method.invoke(bean, Thread.currentThread().getId());
+            }
+            catch (Exception e) {
+                // Not on this interface, or not supported.
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Resets the peak usage of the heap memory pools, see {@link #getPeakHeapUsage()}.
+     */
+    public static void resetPeakHeapUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the peak usage of the heap memory pools since the last reset, in bytes.
+     * This is an upper bound of the heap in use at any moment, since the pools may peak at different times.
+     */
+    public static long getPeakHeapUsage() {
+        long result = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                result += pool.getPeakUsage().getUsed();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the heap in use after a few requested garbage collections, in bytes. The difference between
+     * two calls approximates the memory retained by what happened in between.
+     */
+    public static long getRetainedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    static long getGcTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * The outcome of measuring a single operation with a single set of parameters.
+     */
+    public static class Result {
+        private final String m_name;
+        private final Map<String, Object> m_params;
+        private final Map<String, Object> m_metrics = new LinkedHashMap<String, Object>();
+        private final double[] m_opsPerSecond;
+        private final long m_operations;
+        private final long m_nanos;
+        long m_allocatedBytes = -1;
+        long m_gcCount;
+        long m_gcTime;
+
+        Result(String name, Map<String, Object> params, double[] opsPerSecond, long operations, long nanos) {
+            m_name = name;
+            m_params = new LinkedHashMap<String, Object>(params);
+            m_opsPerSecond = opsPerSecond;
+            m_operations = operations;
+            m_nanos = nanos;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        public Map<String, Object> getParams() {
+            return m_params;
+        }
+
+        /**
+         * Adds a benchmark specific measurement to this result, like the outcome of the operation.
+         */
+        public Result addMetric(String name, Object value) {
+            m_metrics.put(name, value);
+            return this;
+        }
+
+        public Map<String, Object> getMetrics() {
+            return m_metrics;
+        }
+
+        public double getOpsPerSecond() {
+            return m_operations * 1e9 / m_nanos;
+        }
+
+        /**
+         * Returns the standard deviation of the throughput over the measured iterations.
+         */
+        public double getOpsPerSecondDeviation() {
+            double mean = 0;
+            for (double ops : m_opsPerSecond) {
+                mean += ops / m_opsPerSecond.length;
+            }
+            double variance = 0;
+            for (double ops : m_opsPerSecond) {
+                variance += (ops - mean) * (ops - mean) / m_opsPerSecond.length;
+            }
+            return Math.sqrt(variance);
+        }
+
+        /**
+         * Returns the number of bytes allocated per operation, or -1 when unknown.
+         */
+        public double getBytesPerOperation() {
+            return (m_allocatedBytes < 0) ? -1 : (double) m_allocatedBytes / m_operations;
+        }
+
+        /**
+         * Returns the allocation rate in MB per second, or -1 when unknown.
+         */
+        public double getAllocationRate() {
+            return (m_allocatedBytes < 0) ? -1 : m_allocatedBytes * 1e9 / m_nanos / (1024 * 1024);
+        }
+
+        public long getGcCount() {
+            return m_gcCount;
+        }
+
+        public long getGcTime() {
+            return m_gcTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s: %.1f ops/s (+- %.1f), %.1f bytes/op, %d gcs (%d ms)%s",
+                m_name, m_params, getOpsPerSecond(), getOpsPerSecondDeviation(), getBytesPerOperation(), m_gcCount, m_gcTime,
+                m_metrics.isEmpty() ? "" : " " + m_metrics);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Collects the benchmark results of a single test method on a single framework, and writes them
+ * as JSON. When the system property {@link #PROP_DIRECTORY} is set, the report is stored in that
+ * directory as <code>&lt;benchmark&gt;.&lt;method&gt;-&lt;vendor&gt;-&lt;version&gt;.json</code>;
+ * it is always printed to System.err as well.
+ * <br />
+ * Pax Exam runs every test method in a framework of its own, so a report cannot span a test class.
+ * The method is the <code>@Test</code> method of the benchmark class that was running when the
+ * first result was added.
+ */
+public class BenchmarkReport {
+
+    public static final String PROP_DIRECTORY = "net.luminis.osgitest.benchmark.dir";
+
+    private final Class<?> m_testClass;
+    private final String m_benchmark;
+    private String m_method;
+    private final String m_vendor;
+    private final String m_version;
+    private final List<Benchmark.Result> m_results = new ArrayList<Benchmark.Result>();
+
+    public BenchmarkReport(Class<?> testClass, String vendor, String version) {
+        m_testClass = testClass;
+        m_benchmark = testClass.getSimpleName();
+        m_vendor = vendor;
+        m_version = version;
+    }
+
+    public void add(Benchmark.Result result) {
+        if (m_method == null) {
+            m_method = findTestMethod();
+        }
+        m_results.add(result);
+    }
+
+    public String getMethod() {
+        return m_method;
+    }
+
+    public List<Benchmark.Result> getResults() {
+        return m_results;
+    }
+
+    /**
+     * Writes the report, if there is anything to write.
+     */
+    public void write() throws IOException {
+        if (m_results.isEmpty()) {
+            return;
+        }
+        String json = toJSON();
+        System.err.println(json);
+
+        String dir = System.getProperty(PROP_DIRECTORY);
+        if (dir != null) {
+            String benchmark = (m_method == null) ? m_benchmark : m_benchmark + "." + m_method;
+            File file = new File(dir, (benchmark + "-" + m_vendor + "-" + m_version).replaceAll("[^\\w.-]", "_") + ".json");
+            file.getParentFile().mkdirs();
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                writer.write(json);
+            }
+            finally {
+                writer.close();
+            }
+        }
+    }
+
+    public String toJSON() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"benchmark\": ").append(quote(m_benchmark)).append(",\n");
+        if (m_method != null) {
+            json.append("  \"method\": ").append(quote(m_method)).append(",\n");
+        }
+        json.append("  \"vendor\": ").append(quote(m_vendor)).append(",\n");
+        json.append("  \"version\": ").append(quote(m_version)).append(",\n");
+        json.append("  \"results\": [");
+        for (int i = 0; i < m_results.size(); i++) {
+            Benchmark.Result result = m_results.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"name\": ").append(quote(result.getName()));
+            json.append(", \"params\": ");
+            appendMap(json, result.getParams());
+            json.append(", \"opsPerSecond\": ").append(number(result.getOpsPerSecond()));
+            json.append(", \"opsPerSecondDeviation\": ").append(number(result.getOpsPerSecondDeviation()));
+            json.append(", \"msPerOperation\": ").append(number(1000 / result.getOpsPerSecond()));
+            json.append(", \"bytesPerOperation\": ").append(number(result.getBytesPerOperation()));
+            json.append(", \"allocationRateMB\": ").append(number(result.getAllocationRate()));
+            json.append(", \"gcCount\": ").append(result.getGcCount());
+            json.append(", \"gcTimeMs\": ").append(result.getGcTime());
+            if (!result.getMetrics().isEmpty()) {
+                json.append(", \"metrics\": ");
+                appendMap(json, result.getMetrics());
+            }
+            json.append("}");
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private static void appendMap(StringBuilder json, Map<String, Object> map) {
+        json.append("{");
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            json.append(first ? "" : ", ").append(quote(entry.getKey())).append(": ");
+            Object value = entry.getValue();
+            if (((value instanceof Double) || (value instanceof Float)) && !isFinite(((Number) value).doubleValue())) {
+                json.append("null");
+            }
+            else {
+                json.append(((value instanceof Number) || (value instanceof Boolean)) ? value.toString() : quote(String.valueOf(value)));
+            }
+            first = false;
+        }
+        json.append("}");
+    }
+
+    /**
+     * Formats a number for JSON, which has no NaN or infinity; those are written as <code>null</code>.
+     */
+    private static String number(double d) {
+        return isFinite(d) ? String.format(Locale.US, "%.3f", d) : "null";
+    }
+
+    private static boolean isFinite(double d) {
+        return !Double.isNaN(d) && !Double.isInfinite(d);
+    }
+
+    /**
+     * Returns the name of the <code>@Test</code> method of the benchmark class on the stack, or
+     * <code>null</code> when there is none.
+     */
+    private String findTestMethod() {
+        for (StackTraceElement frame : Thread.currentThread().getStackTrace()) {
+            for (Class<?> c = m_testClass; c != null; c = c.getSuperclass()) {
+                if (c.getName().equals(frame.getClassName())) {
+                    try {
+                        if (c.getMethod(frame.getMethodName()).isAnnotationPresent(Test.class)) {
+                            return frame.getMethodName();
+                        }
+                    }
+                    catch (NoSuchMethodException e) {
+                        // A helper with parameters; look further down the stack.
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String quote(String s) {
+        StringBuilder result = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"': result.append("\\\""); break;
+                case '\\': result.append("\\\\"); break;
+                case '\n': result.append("\\n"); break;
+                case '\r': result.append("\\r"); break;
+                case '\t': result.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        result.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        result.append(c);
+                    }
+            }
+        }
+        return result.append('"').toString();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance;
+
+/**
+ * Records latencies in logarithmic buckets, so recording does not allocate and the histogram has a
+ * fixed size no matter how many values are recorded. Every power of two is divided into eight buckets,
+ * which makes percentiles accurate to within about 12%. A histogram is not thread safe; give every
+ * thread its own, and {@link #add(LatencyHistogram)} them afterwards.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 8;
+
+    private final long[] m_counts = new long[64 * SUB_BUCKETS];
+    private long m_total;
+    private long m_max;
+
+    /**
+     * Records a single latency, in nanoseconds.
+     */
+    public void record(long nanos) {
+        m_counts[bucket(Math.max(0, nanos))]++;
+        m_total++;
+        m_max = Math.max(m_max, nanos);
+    }
+
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < m_counts.length; i++) {
+            m_counts[i] += other.m_counts[i];
+        }
+        m_total += other.m_total;
+        m_max = Math.max(m_max, other.m_max);
+    }
+
+    public void clear() {
+        for (int i = 0; i < m_counts.length; i++) {
+            m_counts[i] = 0;
+        }
+        m_total = 0;
+        m_max = 0;
+    }
+
+    public long getCount() {
+        return m_total;
+    }
+
+    public long getMax() {
+        return m_max;
+    }
+
+    /**
+     * Returns the latency below which the given fraction of the recorded latencies falls, in nanoseconds.
+     * @param fraction A number between 0 and 1, eg 0.99 for the 99th percentile.
+     */
+    public long getPercentile(double fraction) {
+        long rank = (long) Math.ceil(fraction * m_total);
+        long seen = 0;
+        for (int i = 0; i < m_counts.length; i++) {
+            seen += m_counts[i];
+            if ((seen >= rank) && (seen > 0)) {
+                return Math.min(upperBound(i), m_max);
+            }
+        }
+        return m_max;
+    }
+
+    private static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (magnitude - 3)) & (SUB_BUCKETS - 1);
+        return (magnitude - 2) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + 2;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (magnitude - 3)) - 1;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.luminis.osgitest.test.support.WarmFrameworkTestBase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.osgi.framework.Constants;
+
+/**
+ * Base class for benchmarks. Every test method gets its own {@link BenchmarkReport}, which
+ * is written after the method has finished. When the method refreshed the framework, the report
+ * also holds a <code>refresh</code> result with the number of refreshes and the time they took.
+ * <br />
+ * Benchmarks are not part of the conformance run; use the <code>benchmark</code> target to run them.
+ * They are not annotated with the spec sections they touch, so they stay out of the spec index and
+ * of a run of selected sections.
+ */
+public abstract class PerformanceTestBase extends WarmFrameworkTestBase {
+
+    protected Benchmark m_benchmark;
+    protected BenchmarkReport m_report;
+
+    @Before
+    public void setUpBenchmark() {
+        m_benchmark = new Benchmark();
+        m_report = new BenchmarkReport(getClass(),
+            m_context.getProperty(Constants.FRAMEWORK_VENDOR),
+            m_context.getProperty(Constants.FRAMEWORK_VERSION));
+    }
+
+    @After
+    public void writeReport() throws IOException {
+        if (m_refresh.getRefreshCount() > 0) {
+            record("refresh", params(), m_refresh.getRefreshCount(), m_refresh.getRefreshNanos())
+                .addMetric("requests", m_refresh.getRequestCount());
+        }
+        m_report.write();
+    }
+
+    /**
+     * Measures an operation, and adds the result to the report.
+     */
+    protected Benchmark.Result measure(String name, Map<String, Object> params, Benchmark.Operation operation) throws Exception {
+        Benchmark.Result result = m_benchmark.measure(name, params, operation);
+        m_report.add(result);
+        return result;
+    }
+
+    /**
+     * Adds the result of a single, externally timed run to the report; use this for operations that
+     * are too expensive to repeat in iterations.
+     */
+    protected Benchmark.Result record(String name, Map<String, Object> params, long operations, long nanos) {
+        return record(name, params, operations, new long[] {nanos});
+    }
+
+    /**
+     * Adds the result of a number of externally timed runs to the report, each performing the same number of operations.
+     */
+    protected Benchmark.Result record(String name, Map<String, Object> params, long operations, long[] nanos) {
+        double[] opsPerSecond = new double[nanos.length];
+        long totalNanos = 0;
+        for (int i = 0; i < nanos.length; i++) {
+            opsPerSecond[i] = operations * 1e9 / nanos[i];
+            totalNanos += nanos[i];
+        }
+        Benchmark.Result result = new Benchmark.Result(name, params, opsPerSecond, operations * nanos.length, totalNanos);
+        m_report.add(result);
+        return result;
+    }
+
+    /**
+     * Convenience method for building benchmark parameters, as alternating names and values.
+     */
+    protected static Map<String, Object> params(Object... nameValues) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            result.put((String) nameValues[i], nameValues[i + 1]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of the given benchmark parameters, with more parameters added as alternating names and values.
+     */
+    protected static Map<String, Object> params(Map<String, Object> params, Object... nameValues) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>(params);
+        result.putAll(params(nameValues));
+        return result;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.modulelayer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.luminis.osgitest.test.support.BundleInstaller;
+import net.luminis.osgitest.test.support.SyntheticBundle;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+
+/**
+ * Generates a graph of bundles for resolver benchmarks. Bundle <code>i</code> exports package
+ * <code>perf.graph.p&lt;i&gt;</code>, and imports the packages of the <code>fanOut</code> bundles
+ * before it, so every graph can be resolved.
+ * <br />
+ * With a uses depth <code>d</code> larger than 0, the bundles are divided into segments of
+ * <code>d + 1</code> bundles, and every export uses the packages it imports from its own segment.
+ * This creates chains of uses constraints that are at most <code>d</code> long.
+ */
+public class BundleGraphGenerator {
+
+    private final int m_bundles;
+    private int m_fanOut = 1;
+    private int m_usesDepth = 0;
+    private String m_exportVersion = "1.0.0";
+    private String m_importVersion = null;
+
+    public BundleGraphGenerator(int bundles) {
+        m_bundles = bundles;
+    }
+
+    public BundleGraphGenerator setFanOut(int fanOut) {
+        m_fanOut = fanOut;
+        return this;
+    }
+
+    public BundleGraphGenerator setUsesDepth(int usesDepth) {
+        m_usesDepth = usesDepth;
+        return this;
+    }
+
+    /**
+     * Sets the version used for all exports, or <code>null</code> for none; defaults to <code>1.0.0</code>.
+     */
+    public BundleGraphGenerator setExportVersion(String exportVersion) {
+        m_exportVersion = exportVersion;
+        return this;
+    }
+
+    /**
+     * Sets the version (range) used for all imports, or <code>null</code> for none.
+     */
+    public BundleGraphGenerator setImportVersion(String importVersion) {
+        m_importVersion = importVersion;
+        return this;
+    }
+
+    public List<SyntheticBundle> generate() {
+        List<SyntheticBundle> result = new ArrayList<SyntheticBundle>();
+        for (int i = 0; i < m_bundles; i++) {
+            SyntheticBundle bundle = new SyntheticBundle("graph." + i);
+            List<String> uses = new ArrayList<String>();
+            for (int j = i - 1; (j >= 0) && (j >= i - m_fanOut); j--) {
+                bundle.addImport(getPackage(j), m_importVersion);
+                if ((m_usesDepth > 0) && (j / (m_usesDepth + 1) == i / (m_usesDepth + 1))) {
+                    uses.add(getPackage(j));
+                }
+            }
+            bundle.addExport(getPackage(i), m_exportVersion, uses.toArray(new String[uses.size()]));
+            result.add(bundle);
+        }
+        return result;
+    }
+
+    /**
+     * Installs all bundles of the graph as one batch, without resolving them.
+     */
+    public Bundle[] install(BundleContext context) throws BundleException, IOException {
+        return new BundleInstaller(context, null).installBundles(generate());
+    }
+
+    public static String getPackage(int i) {
+        return "perf.graph.p" + i;
+    }
+}
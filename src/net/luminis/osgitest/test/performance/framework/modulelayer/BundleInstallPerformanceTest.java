@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.modulelayer;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+
+import net.luminis.osgitest.test.performance.Benchmark;
+import net.luminis.osgitest.test.performance.PerformanceTestBase;
+import net.luminis.osgitest.test.support.BundleBuffer;
+import net.luminis.osgitest.test.support.SyntheticBundle;
+
+import org.junit.Test;
+
+/**
+ * Measures installing a bundle that embeds a large jar on its Bundle-ClassPath, from 64 KB up to
+ * the size set with the system property {@link #PROP_MAX_SIZE} (in MB). Every size is installed
+ * from a copied byte array, and from a {@link BundleBuffer}; the allocation per install shows the
+ * copies the buffer saves.
+ */
+public class BundleInstallPerformanceTest extends PerformanceTestBase {
+
+    public static final String PROP_MAX_SIZE = "net.luminis.osgitest.benchmark.install.size";
+
+    private static final int MAX_SIZE = Integer.getInteger(PROP_MAX_SIZE, 32) * 1024 * 1024;
+
+    @Test
+    public void testInstallEmbeddedJar() throws Exception {
+        for (int size = 64 * 1024; size <= MAX_SIZE; size *= 8) {
+            final SyntheticBundle bundle = createBundle(size);
+
+            measure("install", params("size", size, "from", "byteArray"), new Benchmark.Operation() {
+                public int run() throws Exception {
+                    m_context.installBundle(bundle.getName(), new ByteArrayInputStream(bundle.toByteArray())).uninstall();
+                    return 1;
+                }
+            });
+            measure("install", params("size", size, "from", "bundleBuffer"), new Benchmark.Operation() {
+                public int run() throws Exception {
+                    bundle.install(m_context).uninstall();
+                    return 1;
+                }
+            });
+            resetFramework();
+        }
+    }
+
+    /**
+     * Creates a bundle with an embedded jar holding <code>size</code> random, so incompressible, bytes.
+     */
+    private static SyntheticBundle createBundle(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return new SyntheticBundle("install." + size)
+            .setHeader("Bundle-ClassPath", ".,embedded.jar")
+            .addEntry("embedded.jar", new SyntheticBundle("embedded." + size).addEntry("data.bin", data));
+    }
+}
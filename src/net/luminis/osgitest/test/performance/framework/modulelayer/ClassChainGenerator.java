@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.modulelayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.luminis.osgitest.test.support.ClassGenerator;
+import net.luminis.osgitest.test.support.SyntheticBundle;
+
+/**
+ * Generates a chain of bundles for class loading benchmarks. Bundle <code>k</code> exports package
+ * <code>perf.chain.p&lt;k&gt;</code>, and its class <code>C&lt;i&gt;</code> extends class <code>C&lt;i&gt;</code>
+ * of the package of bundle <code>k - 1</code>. Loading class <code>C&lt;i&gt;</code> from the last bundle
+ * therefore loads one class in every bundle of the chain.
+ * <br />
+ * How a bundle gets to the package of the bundle before it, and where its classes live, is set with
+ * {@link Wiring}. The bundles come in chain order; with {@link Wiring#FRAGMENT}, the fragments follow the hosts.
+ */
+public class ClassChainGenerator {
+
+    public enum Wiring {
+        /** Every bundle imports the package of the bundle before it. */
+        IMPORT,
+        /** As {@link #IMPORT}, but the classes of every bundle live in a fragment attached to it. */
+        FRAGMENT,
+        /** Every bundle dynamically imports the package of the bundle before it. */
+        DYNAMIC
+    }
+
+    private final String m_name;
+    private final int m_depth;
+    private final int m_classes;
+    private final Wiring m_wiring;
+
+    /**
+     * @param depth The number of imports in the chain; the chain has <code>depth + 1</code> bundles.
+     * @param classes The number of classes in every bundle.
+     */
+    public ClassChainGenerator(String name, int depth, int classes, Wiring wiring) {
+        m_name = name;
+        m_depth = depth;
+        m_classes = classes;
+        m_wiring = wiring;
+    }
+
+    public List<SyntheticBundle> generate() {
+        List<SyntheticBundle> hosts = new ArrayList<SyntheticBundle>();
+        List<SyntheticBundle> fragments = new ArrayList<SyntheticBundle>();
+        for (int k = 0; k <= m_depth; k++) {
+            SyntheticBundle host = new SyntheticBundle(m_name + ".b" + k);
+            host.addExport(getPackage(k), "1.0.0");
+            if (k > 0) {
+                if (m_wiring == Wiring.DYNAMIC) {
+                    host.setHeader("DynamicImport-Package", getPackage(k - 1));
+                }
+                else {
+                    host.addImport(getPackage(k - 1), null);
+                }
+            }
+
+            SyntheticBundle content = host;
+            if (m_wiring == Wiring.FRAGMENT) {
+                content = new SyntheticBundle(m_name + ".f" + k).setHeader("Fragment-Host", host.getName());
+                fragments.add(content);
+            }
+            for (int i = 0; i < m_classes; i++) {
+                String superClass = (k == 0) ? Object.class.getName() : getClassName(k - 1, i);
+                content.addEntry(ClassGenerator.getPath(getClassName(k, i)), ClassGenerator.generate(getClassName(k, i), superClass));
+            }
+            hosts.add(host);
+        }
+        hosts.addAll(fragments);
+        return hosts;
+    }
+
+    /**
+     * Returns the index of the last bundle of the chain, from which the classes should be loaded.
+     */
+    public int getLastBundle() {
+        return m_depth;
+    }
+
+    /**
+     * Returns the name of class <code>C&lt;i&gt;</code> of the last bundle of the chain.
+     */
+    public String getClassName(int i) {
+        return getClassName(m_depth, i);
+    }
+
+    private static String getClassName(int k, int i) {
+        return getPackage(k) + ".C" + i;
+    }
+
+    public static String getPackage(int k) {
+        return "perf.chain.p" + k;
+    }
+}
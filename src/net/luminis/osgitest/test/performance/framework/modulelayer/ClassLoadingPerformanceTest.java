@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.modulelayer;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.luminis.osgitest.test.performance.Benchmark;
+import net.luminis.osgitest.test.performance.PerformanceTestBase;
+import net.luminis.osgitest.test.performance.framework.modulelayer.ClassChainGenerator.Wiring;
+import net.luminis.osgitest.test.support.BundleInstaller;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Measures class loading across chains of wired bundles, generated by {@link ClassChainGenerator}, with
+ * chains of 1 to 10 imports, wired by imports, through fragments and by dynamic imports. Loading a class
+ * from the end of a chain loads a class in every bundle of the chain.
+ * <br />
+ * Cold loading lets a number of threads load all classes of a fresh chain together, which shows the lock
+ * contention in the bundle class loaders; the result has the metric <code>parallelCapable</code> when the
+ * JVM can tell whether the class loader of the last bundle is registered as parallel capable. Warm loading
+ * repeatedly loads classes that have been loaded before. The number of classes per bundle can be set with
+ * the system property {@link #PROP_CLASSES}.
+ */
+public class ClassLoadingPerformanceTest extends PerformanceTestBase {
+
+    public static final String PROP_CLASSES = "net.luminis.osgitest.benchmark.classloading.classes";
+
+    private static final int CLASSES = Integer.getInteger(PROP_CLASSES, 1000);
+    private static final int[] DEPTHS = {1, 2, 5, 10};
+
+    private final ThreadLocal<Random> m_random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    @Test
+    public void testColdLoading() throws Exception {
+        for (Wiring wiring : Wiring.values()) {
+            for (int depth : DEPTHS) {
+                for (int threads : getThreadCounts()) {
+                    ClassChainGenerator generator = new ClassChainGenerator("chain", depth, CLASSES, wiring);
+                    Bundle bundle = install(generator);
+                    long nanos = loadConcurrently(bundle, generator, threads);
+                    Benchmark.Result result = record("coldLoadClass", params("wiring", wiring, "depth", depth, "threads", threads), CLASSES, nanos)
+                        .addMetric("classesDefined", CLASSES * (depth + 1));
+                    Boolean parallelCapable = isParallelCapable(bundle.loadClass(generator.getClassName(0)).getClassLoader());
+                    if (parallelCapable != null) {
+                        result.addMetric("parallelCapable", parallelCapable);
+                    }
+                    System.err.println(result);
+                    resetFramework();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWarmLoading() throws Exception {
+        for (Wiring wiring : Wiring.values()) {
+            for (int depth : DEPTHS) {
+                final ClassChainGenerator generator = new ClassChainGenerator("chain", depth, CLASSES, wiring);
+                final Bundle bundle = install(generator);
+                loadConcurrently(bundle, generator, 1);
+                for (int threads : getThreadCounts()) {
+                    Benchmark.Result result = m_benchmark.measureConcurrent("warmLoadClass",
+                        params("wiring", wiring, "depth", depth, "threads", threads), threads, new Benchmark.Operation() {
+                            public int run() throws Exception {
+                                return bundle.loadClass(generator.getClassName(m_random.get().nextInt(CLASSES))).hashCode();
+                            }
+                        });
+                    m_report.add(result);
+                    System.err.println(result);
+                }
+                resetFramework();
+            }
+        }
+    }
+
+    /**
+     * Installs and resolves the chain, and returns its last bundle.
+     */
+    private Bundle install(ClassChainGenerator generator) throws Exception {
+        Bundle[] bundles = new BundleInstaller(m_context, m_admin).setResolve(true).installBundles(generator.generate());
+        Bundle bundle = bundles[generator.getLastBundle()];
+        assert bundle.getState() == Bundle.RESOLVED : "The generated chain should resolve.";
+        return bundle;
+    }
+
+    /**
+     * Loads all classes of the last bundle of the chain once, using a number of threads that start at
+     * the same time and take the next class to load until none are left.
+     * @return The time taken, in nanoseconds.
+     */
+    private long loadConcurrently(final Bundle bundle, final ClassChainGenerator generator, int threads) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Object>> loaders = new ArrayList<Future<Object>>();
+            for (int t = 0; t < threads; t++) {
+                loaders.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        start.await();
+                        for (int i = next.getAndIncrement(); i < CLASSES; i = next.getAndIncrement()) {
+                            bundle.loadClass(generator.getClassName(i));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<Object> loader : loaders) {
+                loader.get();
+            }
+            return System.nanoTime() - begin;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns whether the class loader is registered as parallel capable, or <code>null</code> when the JVM
+     * cannot tell (before Java 9).
+     */
+    private static Boolean isParallelCapable(ClassLoader loader) {
+        try {
+            Method method = ClassLoader.class.getMethod("isRegisteredAsParallelCapable");
+            return (Boolean) method.invoke(loader);
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static int[] getThreadCounts() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return (cores > 2) ? new int[] {1, 2, cores} : new int[] {1, 2};
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.modulelayer;
+
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Random;
+
+import net.luminis.osgitest.test.performance.Benchmark;
+import net.luminis.osgitest.test.performance.PerformanceTestBase;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Measures entry, resource and class lookups in large bundles generated by {@link LargeBundleGenerator},
+ * with 10000 entries up to the number set with the system property {@link #PROP_MAX_ENTRIES}. Every bundle
+ * shape is measured with a flat and a deep directory tree, and with its content spread over embedded jars.
+ * <br />
+ * Each lookup is measured cold, as the first call on a freshly installed bundle, and warm, as repeated
+ * calls for random entries afterwards.
+ */
+public class ClassPathPerformanceTest extends PerformanceTestBase {
+
+    public static final String PROP_MAX_ENTRIES = "net.luminis.osgitest.benchmark.classpath.entries";
+
+    private static final int MAX_ENTRIES = Integer.getInteger(PROP_MAX_ENTRIES, 100000);
+    private static final int CLASSES = 10000;
+
+    /**
+     * The bundle shapes, as pairs of directory depth and number of embedded jars.
+     */
+    private static final int[][] SHAPES = {{1, 0}, {4, 0}, {1, 4}};
+
+    private final Random m_random = new Random(0);
+
+    @Test
+    public void testEntries() throws Exception {
+        for (int entries = 10000; entries <= MAX_ENTRIES; entries *= 10) {
+            for (int[] shape : SHAPES) {
+                final LargeBundleGenerator generator = createGenerator(entries, shape, 0);
+                final Bundle bundle = install(generator);
+                // Only the entries in the bundle itself can be found with getEntry.
+                final int stride = shape[1] + 1;
+                final int ownEntries = (entries + stride - 1) / stride;
+                Map<String, Object> params = params("entries", entries, "depth", shape[0], "embeddedJars", shape[1]);
+
+                measureColdAndWarm("getEntry", params, new Benchmark.Operation() {
+                    public int run() {
+                        String path = generator.getEntryPath(m_random.nextInt(ownEntries) * stride);
+                        assert bundle.getEntry(path) != null : "Entry " + path + " should be found.";
+                        return 1;
+                    }
+                });
+                measureColdAndWarm("findEntries", params, new Benchmark.Operation() {
+                    public int run() {
+                        return count(bundle.findEntries("/", "*.txt", true));
+                    }
+                });
+                measureColdAndWarm("getEntryPaths", params, new Benchmark.Operation() {
+                    public int run() {
+                        return walk(bundle, "/");
+                    }
+                });
+                resetFramework();
+            }
+        }
+    }
+
+    @Test
+    public void testResources() throws Exception {
+        for (int entries = 10000; entries <= MAX_ENTRIES; entries *= 10) {
+            for (int[] shape : SHAPES) {
+                final LargeBundleGenerator generator = createGenerator(entries, shape, 0);
+                final Bundle bundle = install(generator);
+                final int allEntries = entries;
+
+                measureColdAndWarm("getResource", params("entries", entries, "depth", shape[0], "embeddedJars", shape[1]),
+                    new Benchmark.Operation() {
+                        public int run() {
+                            String path = generator.getEntryPath(m_random.nextInt(allEntries));
+                            assert bundle.getResource(path) != null : "Resource " + path + " should be found.";
+                            return 1;
+                        }
+                    });
+                resetFramework();
+            }
+        }
+    }
+
+    @Test
+    public void testClassLoading() throws Exception {
+        for (int[] shape : SHAPES) {
+            LargeBundleGenerator generator = createGenerator(CLASSES, shape, CLASSES);
+            final Bundle bundle = install(generator);
+            Map<String, Object> params = params("classes", CLASSES, "depth", shape[0], "embeddedJars", shape[1]);
+
+            // Every class is loaded once, so this is cold by definition.
+            long start = System.nanoTime();
+            for (int i = 0; i < CLASSES; i++) {
+                bundle.loadClass(LargeBundleGenerator.getClassName(i));
+            }
+            record("loadClass", params(params, "phase", "cold"), CLASSES, System.nanoTime() - start);
+
+            measure("loadClass", params(params, "phase", "warm"), new Benchmark.Operation() {
+                public int run() throws Exception {
+                    bundle.loadClass(LargeBundleGenerator.getClassName(m_random.nextInt(CLASSES)));
+                    return 1;
+                }
+            });
+            resetFramework();
+        }
+    }
+
+    private static LargeBundleGenerator createGenerator(int entries, int[] shape, int classes) {
+        return new LargeBundleGenerator("classpath." + entries + "." + shape[0] + "." + shape[1])
+            .setEntries(entries)
+            .setDepth(shape[0])
+            .setEmbeddedJars(shape[1])
+            .setClasses(classes);
+    }
+
+    private Bundle install(LargeBundleGenerator generator) throws Exception {
+        Bundle bundle = generator.generate().install(m_context);
+        boolean resolved = m_admin.resolveBundles(new Bundle[] {bundle});
+        assert resolved : "The generated bundle should resolve.";
+        return bundle;
+    }
+
+    /**
+     * Records the first run of the operation as the cold result, and measures it as usual for the warm result.
+     */
+    private void measureColdAndWarm(String name, Map<String, Object> params, Benchmark.Operation operation) throws Exception {
+        long start = System.nanoTime();
+        int operations = operation.run();
+        record(name, params(params, "phase", "cold"), operations, System.nanoTime() - start);
+        measure(name, params(params, "phase", "warm"), operation);
+    }
+
+    private static int count(Enumeration<?> entries) {
+        int count = 0;
+        while ((entries != null) && entries.hasMoreElements()) {
+            entries.nextElement();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Enumerates all entries below a path, and returns how many there are.
+     */
+    private static int walk(Bundle bundle, String path) {
+        int count = 0;
+        Enumeration<?> paths = bundle.getEntryPaths(path);
+        while ((paths != null) && paths.hasMoreElements()) {
+            String child = (String) paths.nextElement();
+            count++;
+            if (child.endsWith("/")) {
+                count += walk(bundle, child);
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.modulelayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.luminis.osgitest.test.support.ClassGenerator;
+import net.luminis.osgitest.test.support.SyntheticBundle;
+
+/**
+ * Generates hosts with fragments attached to them for fragment benchmarks. Host <code>h</code> exports
+ * package <code>perf.frag.h&lt;h&gt;</code>. Each of its fragments adds a class to that package, exports a
+ * package of its own with a class in it, and imports <code>perf.frag.lib</code> from a shared library bundle.
+ * <br />
+ * All fragments of a host add to the same package, so finding the class of the last fragment searches
+ * the host and all fragments before it. The bundles come as the library, then the hosts, then the fragments.
+ */
+public class FragmentGraphGenerator {
+
+    public static final String LIBRARY_PACKAGE = "perf.frag.lib";
+
+    private final int m_hosts;
+    private final int m_fragments;
+
+    /**
+     * @param fragments The number of fragments attached to every host.
+     */
+    public FragmentGraphGenerator(int hosts, int fragments) {
+        m_hosts = hosts;
+        m_fragments = fragments;
+    }
+
+    public List<SyntheticBundle> generate() {
+        List<SyntheticBundle> result = new ArrayList<SyntheticBundle>();
+        result.add(new SyntheticBundle("frag.lib").addExport(LIBRARY_PACKAGE, "1.0.0"));
+        List<String> hostNames = new ArrayList<String>();
+        for (int h = 0; h < m_hosts; h++) {
+            SyntheticBundle host = new SyntheticBundle("frag.h" + h)
+                .addExport(getHostPackage(h), "1.0.0");
+            String hostClass = getHostPackage(h) + ".Host";
+            host.addEntry(ClassGenerator.getPath(hostClass), ClassGenerator.generate(hostClass));
+            hostNames.add(host.getName());
+            result.add(host);
+        }
+        for (int h = 0; h < m_hosts; h++) {
+            for (int f = 0; f < m_fragments; f++) {
+                String ownPackage = getHostPackage(h) + ".f" + f;
+                SyntheticBundle fragment = new SyntheticBundle("frag.h" + h + ".f" + f)
+                    .setHeader("Fragment-Host", hostNames.get(h))
+                    .addImport(LIBRARY_PACKAGE, null)
+                    .addExport(ownPackage, "1.0.0");
+                fragment.addEntry(ClassGenerator.getPath(getClassName(h, f)), ClassGenerator.generate(getClassName(h, f)));
+                fragment.addEntry(ClassGenerator.getPath(ownPackage + ".C"), ClassGenerator.generate(ownPackage + ".C"));
+                result.add(fragment);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the index of host <code>h</code> in the generated bundles.
+     */
+    public int getHostIndex(int h) {
+        return 1 + h;
+    }
+
+    /**
+     * Returns the name of the class that fragment <code>f</code> adds to the package of host <code>h</code>.
+     */
+    public static String getClassName(int h, int f) {
+        return getHostPackage(h) + ".C" + f;
+    }
+
+    public static String getHostPackage(int h) {
+        return "perf.frag.h" + h;
+    }
+}
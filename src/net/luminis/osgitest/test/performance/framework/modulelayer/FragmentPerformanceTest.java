@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.modulelayer;
+
+import java.util.Map;
+
+import net.luminis.osgitest.test.performance.Benchmark;
+import net.luminis.osgitest.test.performance.PerformanceTestBase;
+import net.luminis.osgitest.test.support.BundleInstaller;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Measures attaching 1 up to {@link #PROP_MAX_FRAGMENTS} fragments to each of one or more hosts, generated
+ * by {@link FragmentGraphGenerator}. For every graph, the time to resolve it and the heap retained per
+ * attached fragment are recorded, and the latency of loading a class from the first and from the last
+ * fragment of a host, which the framework has to find through the fragment search order.
+ */
+public class FragmentPerformanceTest extends PerformanceTestBase {
+
+    public static final String PROP_MAX_FRAGMENTS = "net.luminis.osgitest.benchmark.fragments";
+
+    private static final int MAX_FRAGMENTS = Integer.getInteger(PROP_MAX_FRAGMENTS, 500);
+    private static final int[] HOSTS = {1, 4};
+    private static final int[] FRAGMENTS = {1, 10, 100, 500};
+
+    @Test
+    public void testAttachFragments() throws Exception {
+        for (int hosts : HOSTS) {
+            for (int fragments : FRAGMENTS) {
+                if (fragments <= MAX_FRAGMENTS) {
+                    measureAttach(new FragmentGraphGenerator(hosts, fragments), hosts, fragments);
+                }
+            }
+        }
+    }
+
+    private void measureAttach(FragmentGraphGenerator generator, int hosts, final int fragments) throws Exception {
+        Map<String, Object> params = params("hosts", hosts, "fragments", fragments);
+        long before = Benchmark.getRetainedHeap();
+        Bundle[] bundles = new BundleInstaller(m_context, m_admin).installBundles(generator.generate());
+
+        long start = System.nanoTime();
+        boolean resolved = m_admin.resolveBundles(bundles);
+        long nanos = System.nanoTime() - start;
+
+        int attached = 0;
+        for (int h = 0; h < hosts; h++) {
+            Bundle[] attachedFragments = m_admin.getFragments(bundles[generator.getHostIndex(h)]);
+            attached += (attachedFragments == null) ? 0 : attachedFragments.length;
+        }
+        long retained = Benchmark.getRetainedHeap() - before;
+        System.err.println(record("resolve", params, 1, nanos)
+            .addMetric("resolved", resolved)
+            .addMetric("attached", attached)
+            .addMetric("retainedBytesPerFragment", retained / (hosts * fragments)));
+        assert attached == hosts * fragments : "All " + (hosts * fragments) + " fragments should be attached, but only " + attached + " are.";
+
+        final Bundle host = bundles[generator.getHostIndex(0)];
+        long coldStart = System.nanoTime();
+        host.loadClass(FragmentGraphGenerator.getClassName(0, fragments - 1));
+        record("loadClass", params(params, "fragment", "last", "phase", "cold"), 1, System.nanoTime() - coldStart);
+        for (final int fragment : new int[] {0, fragments - 1}) {
+            measure("loadClass", params(params, "fragment", (fragment == 0) ? "first" : "last", "phase", "warm"), new Benchmark.Operation() {
+                public int run() throws Exception {
+                    return host.loadClass(FragmentGraphGenerator.getClassName(0, fragment)).hashCode();
+                }
+            });
+        }
+        resetFramework();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.modulelayer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.luminis.osgitest.test.support.ClassGenerator;
+import net.luminis.osgitest.test.support.SyntheticBundle;
+
+/**
+ * Generates a single large bundle for class path benchmarks. Entry <code>i</code> is a small text file
+ * in a directory tree of the given depth, with <code>fanOut</code> subdirectories per directory. The
+ * entries and the generated classes (all in package {@link #PACKAGE}) are spread round robin over the
+ * bundle itself and its embedded jars, which are all on the Bundle-ClassPath. Every directory gets an
+ * explicit entry, so it shows up in {@link org.osgi.framework.Bundle#getEntryPaths(String)}.
+ * <br />
+ * Container 0 is the bundle itself; container <code>j &gt; 0</code> is the embedded jar
+ * <code>lib/j&lt;j&gt;.jar</code>.
+ */
+public class LargeBundleGenerator {
+
+    public static final String PACKAGE = "perf.large";
+
+    private final String m_name;
+    private int m_entries = 10000;
+    private int m_depth = 2;
+    private int m_fanOut = 10;
+    private int m_embeddedJars = 0;
+    private int m_classes = 0;
+
+    public LargeBundleGenerator(String name) {
+        m_name = name;
+    }
+
+    public LargeBundleGenerator setEntries(int entries) {
+        m_entries = entries;
+        return this;
+    }
+
+    public LargeBundleGenerator setDepth(int depth) {
+        m_depth = depth;
+        return this;
+    }
+
+    public LargeBundleGenerator setFanOut(int fanOut) {
+        m_fanOut = fanOut;
+        return this;
+    }
+
+    public LargeBundleGenerator setEmbeddedJars(int embeddedJars) {
+        m_embeddedJars = embeddedJars;
+        return this;
+    }
+
+    public LargeBundleGenerator setClasses(int classes) {
+        m_classes = classes;
+        return this;
+    }
+
+    public SyntheticBundle generate() {
+        SyntheticBundle[] containers = new SyntheticBundle[m_embeddedJars + 1];
+        List<Set<String>> directories = new ArrayList<Set<String>>();
+        containers[0] = new SyntheticBundle(m_name);
+        StringBuilder classPath = new StringBuilder(".");
+        for (int j = 0; j < containers.length; j++) {
+            if (j > 0) {
+                containers[j] = new SyntheticBundle(m_name + ".j" + j);
+                classPath.append(",").append(getJarPath(j));
+            }
+            directories.add(new HashSet<String>());
+        }
+        for (int i = 0; i < m_entries; i++) {
+            int container = getContainer(i);
+            addEntry(containers[container], directories.get(container), getEntryPath(i), ("entry " + i).getBytes());
+        }
+        for (int i = 0; i < m_classes; i++) {
+            int container = getContainer(i);
+            addEntry(containers[container], directories.get(container),
+                ClassGenerator.getPath(getClassName(i)), ClassGenerator.generate(getClassName(i)));
+        }
+        for (int j = 1; j < containers.length; j++) {
+            if (directories.get(0).add("lib/")) {
+                containers[0].addEntry("lib/", new byte[0]);
+            }
+            containers[0].addEntry(getJarPath(j), containers[j]);
+        }
+        return containers[0].setHeader("Bundle-ClassPath", classPath.toString());
+    }
+
+    /**
+     * Adds an entry, preceded by entries for the directories it is in that were not added yet.
+     */
+    private static void addEntry(SyntheticBundle container, Set<String> directories, String path, byte[] content) {
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            String directory = path.substring(0, slash + 1);
+            if (directories.add(directory)) {
+                container.addEntry(directory, new byte[0]);
+            }
+        }
+        container.addEntry(path, content);
+    }
+
+    /**
+     * Returns the container holding entry or class <code>i</code>.
+     */
+    public int getContainer(int i) {
+        return i % (m_embeddedJars + 1);
+    }
+
+    /**
+     * Returns the path of entry <code>i</code> within its container, e.g. <code>d3/d7/e123.txt</code>.
+     */
+    public String getEntryPath(int i) {
+        StringBuilder path = new StringBuilder();
+        int directory = i;
+        for (int level = 0; level < m_depth; level++) {
+            path.append('d').append(directory % m_fanOut).append('/');
+            directory /= m_fanOut;
+        }
+        return path.append('e').append(i).append(".txt").toString();
+    }
+
+    public static String getClassName(int i) {
+        return PACKAGE + ".C" + i;
+    }
+
+    public static String getJarPath(int j) {
+        return "lib/j" + j + ".jar";
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.modulelayer;
+
+import java.util.Map;
+
+import net.luminis.osgitest.test.performance.PerformanceTestBase;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Measures how long the framework takes to resolve generated bundle graphs, see {@link BundleGraphGenerator}.
+ * Every test varies a single property of the graph, so the results form a latency curve for that property.
+ * Each graph is installed, resolved using {@link org.osgi.service.packageadmin.PackageAdmin#resolveBundles(Bundle[])}
+ * and uninstalled again for every iteration.
+ * <br />
+ * The largest graph can be set with the system property {@link #PROP_MAX_BUNDLES}.
+ */
+public class ResolverPerformanceTest extends PerformanceTestBase {
+
+    public static final String PROP_MAX_BUNDLES = "net.luminis.osgitest.benchmark.resolver.bundles";
+
+    private static final int MAX_BUNDLES = Integer.getInteger(PROP_MAX_BUNDLES, 500);
+    private static final String RANGE = "[1.0,2.0)";
+
+    @Test
+    public void testResolveScalingBundles() throws Exception {
+        for (int bundles : new int[] {10, 50, 100, 250, 500, 1000}) {
+            if (bundles <= MAX_BUNDLES) {
+                measureResolve(new BundleGraphGenerator(bundles).setFanOut(4).setUsesDepth(2).setImportVersion(RANGE),
+                    params("bundles", bundles, "fanOut", 4, "usesDepth", 2, "importVersion", RANGE));
+            }
+        }
+    }
+
+    @Test
+    public void testResolveScalingFanOut() throws Exception {
+        int bundles = Math.min(250, MAX_BUNDLES);
+        for (int fanOut : new int[] {1, 2, 4, 8, 16}) {
+            measureResolve(new BundleGraphGenerator(bundles).setFanOut(fanOut).setUsesDepth(2).setImportVersion(RANGE),
+                params("bundles", bundles, "fanOut", fanOut, "usesDepth", 2, "importVersion", RANGE));
+        }
+    }
+
+    @Test
+    public void testResolveScalingUsesDepth() throws Exception {
+        int bundles = Math.min(250, MAX_BUNDLES);
+        for (int usesDepth : new int[] {0, 1, 2, 4, 8, 16}) {
+            measureResolve(new BundleGraphGenerator(bundles).setFanOut(4).setUsesDepth(usesDepth).setImportVersion(RANGE),
+                params("bundles", bundles, "fanOut", 4, "usesDepth", usesDepth, "importVersion", RANGE));
+        }
+    }
+
+    @Test
+    public void testResolveScalingImportVersions() throws Exception {
+        int bundles = Math.min(250, MAX_BUNDLES);
+        for (String importVersion : new String[] {null, "1.0.0", RANGE, "[1.0.0,1.0.0]"}) {
+            measureResolve(new BundleGraphGenerator(bundles).setFanOut(4).setUsesDepth(2).setImportVersion(importVersion),
+                params("bundles", bundles, "fanOut", 4, "usesDepth", 2, "importVersion", String.valueOf(importVersion)));
+        }
+    }
+
+    /**
+     * Installs and resolves the graph for a number of iterations, and records the time taken.
+     */
+    private void measureResolve(BundleGraphGenerator graph, Map<String, Object> params) throws Exception {
+        long[] installNanos = new long[m_benchmark.getIterations()];
+        long[] resolveNanos = new long[m_benchmark.getIterations()];
+        for (int i = -m_benchmark.getWarmupIterations(); i < m_benchmark.getIterations(); i++) {
+            long start = System.nanoTime();
+            Bundle[] bundles = graph.install(m_context);
+            long installed = System.nanoTime();
+            boolean resolved = m_admin.resolveBundles(bundles);
+            long end = System.nanoTime();
+            assert resolved : "All bundles in the graph " + params + " should resolve.";
+            if (i >= 0) {
+                installNanos[i] = installed - start;
+                resolveNanos[i] = end - installed;
+            }
+            resetFramework();
+        }
+        record("install", params, 1, installNanos);
+        System.err.println(record("resolve", params, 1, resolveNanos));
+    }
+}
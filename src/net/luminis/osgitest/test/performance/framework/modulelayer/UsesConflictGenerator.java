@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.modulelayer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.luminis.osgitest.test.support.SyntheticBundle;
+
+/**
+ * Generates bundle graphs in which uses constraints make the resolver choose against its preference
+ * for the highest version, in the spirit of spec section 3.6.4, fig 3.16 (fig 3.17 in r4.2).
+ * All graphs can be resolved: every package has a consistent choice of exporters, but a resolver
+ * that picks candidates greedily only finds it after backtracking.
+ */
+public class UsesConflictGenerator {
+
+    /**
+     * Creates a number of diamonds, all imported by a single top bundle. In every diamond, package
+     * <code>q</code> is exported in version 1.0.0 and 2.0.0, and the only exporter of <code>p</code> uses
+     * and imports <code>q</code> in version 1. The top bundle imports both <code>p</code> and <code>q</code>,
+     * and has to be wired to version 1 of every <code>q</code>.
+     */
+    public static List<SyntheticBundle> diamonds(int count) {
+        List<SyntheticBundle> result = new ArrayList<SyntheticBundle>();
+        SyntheticBundle top = new SyntheticBundle("diamond.top");
+        for (int i = 0; i < count; i++) {
+            String p = "perf.diamond" + i + ".p";
+            String q = "perf.diamond" + i + ".q";
+            result.add(new SyntheticBundle("diamond" + i + ".q1").addExport(q, "1.0.0"));
+            result.add(new SyntheticBundle("diamond" + i + ".q2").addExport(q, "2.0.0"));
+            result.add(new SyntheticBundle("diamond" + i + ".p")
+                .addImport(q, "[1.0,2.0)")
+                .addExport(p, "1.0.0", q));
+            top.addImport(p, null).addImport(q, null);
+        }
+        result.add(top);
+        return result;
+    }
+
+    /**
+     * Creates a number of packages that are each exported in a number of versions. A selector bundle
+     * imports the lowest version of all of them, and exports a package using them all; the top bundle
+     * imports that package and all other packages without a version, so it has to use the lowest
+     * version of every package.
+     */
+    public static List<SyntheticBundle> candidates(int packages, int versions) {
+        List<SyntheticBundle> result = new ArrayList<SyntheticBundle>();
+        SyntheticBundle selector = new SyntheticBundle("candidates.selector");
+        SyntheticBundle top = new SyntheticBundle("candidates.top");
+        String[] uses = new String[packages];
+        for (int i = 0; i < packages; i++) {
+            uses[i] = "perf.candidates.x" + i;
+            for (int v = 1; v <= versions; v++) {
+                result.add(new SyntheticBundle("candidates.x" + i + ".v" + v).addExport(uses[i], v + ".0.0"));
+            }
+            selector.addImport(uses[i], "[1.0.0,1.0.0]");
+            top.addImport(uses[i], null);
+        }
+        selector.addExport("perf.candidates.selector", "1.0.0", uses);
+        top.addImport("perf.candidates.selector", null);
+        result.add(selector);
+        result.add(top);
+        return result;
+    }
+
+    /**
+     * Creates a chain of packages <code>c0</code> to <code>c&lt;depth&gt;</code>, in which every package is
+     * exported in version 1.0.0 and 2.0.0. The exporters of a package import and use the next package of the
+     * same major version. The top bundle imports <code>c0</code> without a version, but the last package in
+     * version 1, so the conflict with the preferred version 2 only shows at the end of the chain.
+     */
+    public static List<SyntheticBundle> deepUses(int depth) {
+        List<SyntheticBundle> result = new ArrayList<SyntheticBundle>();
+        for (int i = 0; i <= depth; i++) {
+            for (int v = 1; v <= 2; v++) {
+                SyntheticBundle bundle = new SyntheticBundle("deep.c" + i + ".v" + v);
+                if (i < depth) {
+                    bundle.addImport(getChainPackage(i + 1), "[" + v + ".0," + (v + 1) + ".0)");
+                    bundle.addExport(getChainPackage(i), v + ".0.0", getChainPackage(i + 1));
+                }
+                else {
+                    bundle.addExport(getChainPackage(i), v + ".0.0");
+                }
+                result.add(bundle);
+            }
+        }
+        result.add(new SyntheticBundle("deep.top")
+            .addImport(getChainPackage(0), null)
+            .addImport(getChainPackage(depth), "[1.0,2.0)"));
+        return result;
+    }
+
+    private static String getChainPackage(int i) {
+        return "perf.deep.c" + i;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.modulelayer;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.luminis.osgitest.test.performance.Benchmark;
+import net.luminis.osgitest.test.performance.PerformanceTestBase;
+import net.luminis.osgitest.test.support.BundleInstaller;
+import net.luminis.osgitest.test.support.SyntheticBundle;
+
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+
+/**
+ * Measures the time and memory the resolver needs for the worst case graphs of {@link UsesConflictGenerator}.
+ * Every test makes its graph larger step by step, until the resolver takes longer than the timeout set
+ * with the system property {@link #PROP_TIMEOUT} (in seconds). A resolver that times out keeps running in
+ * the background, so the framework is not reset afterwards, and the larger graphs are skipped.
+ */
+public class UsesConflictPerformanceTest extends PerformanceTestBase {
+
+    public static final String PROP_TIMEOUT = "net.luminis.osgitest.benchmark.resolver.timeout";
+
+    private static final long TIMEOUT = Long.getLong(PROP_TIMEOUT, 60);
+
+    private boolean m_timedOut = false;
+
+    @Test
+    public void testDiamonds() throws Exception {
+        for (int count = 1; (count <= 64) && !m_timedOut; count *= 2) {
+            measureResolve(UsesConflictGenerator.diamonds(count), params("shape", "diamonds", "diamonds", count));
+        }
+    }
+
+    @Test
+    public void testCandidates() throws Exception {
+        for (int packages = 1; (packages <= 32) && !m_timedOut; packages *= 2) {
+            measureResolve(UsesConflictGenerator.candidates(packages, 4), params("shape", "candidates", "packages", packages, "versions", 4));
+        }
+    }
+
+    @Test
+    public void testDeepUses() throws Exception {
+        for (int depth = 1; (depth <= 128) && !m_timedOut; depth *= 2) {
+            measureResolve(UsesConflictGenerator.deepUses(depth), params("shape", "deepUses", "depth", depth));
+        }
+    }
+
+    @Override
+    protected void resetFramework() {
+        // After a timeout, the resolver is still busy with the bundles we would uninstall.
+        if (!m_timedOut) {
+            super.resetFramework();
+        }
+    }
+
+    /**
+     * Installs and resolves a graph once, and records the time taken, the peak heap usage and
+     * whether the graph was resolved.
+     */
+    private void measureResolve(List<SyntheticBundle> graph, Map<String, Object> params) throws Exception {
+        final Bundle[] bundles = new BundleInstaller(m_context, m_admin).installBundles(graph);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "resolver benchmark");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        System.gc();
+        Benchmark.resetPeakHeapUsage();
+        long start = System.nanoTime();
+        Future<Boolean> resolved = executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                return m_admin.resolveBundles(bundles);
+            }
+        });
+        try {
+            Boolean outcome = resolved.get(TIMEOUT, TimeUnit.SECONDS);
+            long nanos = System.nanoTime() - start;
+            System.err.println(record("resolve", params, 1, nanos)
+                .addMetric("bundles", bundles.length)
+                .addMetric("resolved", outcome)
+                .addMetric("timedOut", false)
+                .addMetric("peakHeapMB", Benchmark.getPeakHeapUsage() / (1024 * 1024)));
+            if (!outcome) {
+                System.err.println("The framework could not resolve " + params + ", though a solution exists.");
+            }
+        }
+        catch (TimeoutException e) {
+            m_timedOut = true;
+            System.err.println(record("resolve", params, 1, System.nanoTime() - start)
+                .addMetric("bundles", bundles.length)
+                .addMetric("resolved", false)
+                .addMetric("timedOut", true)
+                .addMetric("peakHeapMB", Benchmark.getPeakHeapUsage() / (1024 * 1024)));
+        }
+        finally {
+            executor.shutdown();
+        }
+        resetFramework();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.servicelayer;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import net.luminis.osgitest.test.performance.LatencyHistogram;
+import net.luminis.osgitest.test.performance.PerformanceTestBase;
+import net.luminis.osgitest.testhelper.BundleUtil;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Measures how long it takes to deliver service events to a growing number of service listeners.
+ * A single service is modified at a fixed rate, and every modification carries the time it was
+ * scheduled in the <code>perf.timestamp</code> property; the listeners record the time between that
+ * moment and their invocation. Since the timestamp is the scheduled time, events that are delayed by
+ * a dispatch of an earlier event that took too long are counted as well.
+ * <br />
+ * Every event has a <code>slot</code> property cycling from 0 to 99; the filters of the listeners use
+ * it to match all, 10%, 1% or none of the events. With no matching listeners, the time spent in
+ * {@link ServiceRegistration#setProperties(Dictionary)} is the cost of evaluating their filters.
+ * <br />
+ * The rate (events per second), the number of events and the largest number of listeners can be set
+ * with the system properties {@link #PROP_RATE}, {@link #PROP_EVENTS} and {@link #PROP_MAX_LISTENERS}.
+ */
+public class ServiceListenerPerformanceTest extends PerformanceTestBase {
+
+    public static final String PROP_RATE = "net.luminis.osgitest.benchmark.listeners.rate";
+    public static final String PROP_EVENTS = "net.luminis.osgitest.benchmark.listeners.events";
+    public static final String PROP_MAX_LISTENERS = "net.luminis.osgitest.benchmark.listeners.max";
+
+    private static final int RATE = Integer.getInteger(PROP_RATE, 1000);
+    private static final int EVENTS = Integer.getInteger(PROP_EVENTS, 2000);
+    private static final int MAX_LISTENERS = Integer.getInteger(PROP_MAX_LISTENERS, 10000);
+
+    private static final String[] SELECTIVITY = {"1", "0.1", "0.01", "0"};
+    private static final String[] FILTERS = {"(slot=*)", "(slot<=9)", "(slot=0)", "(slot=-1)"};
+
+    private final List<LatencyListener> m_listeners = new ArrayList<LatencyListener>();
+    private ServiceRegistration m_registration;
+
+    @After
+    public void unregisterService() {
+        removeListeners();
+        if (m_registration != null) {
+            m_registration.unregister();
+            m_registration = null;
+        }
+    }
+
+    @Test
+    public void testDispatchLatency() throws Exception {
+        m_registration = m_context.registerService(Runnable.class.getName(), new Runnable() {
+            public void run() {
+            }
+        }, null);
+        for (int i = 0; i < SELECTIVITY.length; i++) {
+            for (int listeners = 10; listeners <= MAX_LISTENERS; listeners *= 10) {
+                measureDispatch(listeners, i);
+            }
+        }
+    }
+
+    private void measureDispatch(int listeners, int selectivity) throws Exception {
+        LatencyHistogram latencies = new LatencyHistogram();
+        String filter = "(&(objectClass=" + Runnable.class.getName() + ")" + FILTERS[selectivity] + ")";
+        for (int i = 0; i < listeners; i++) {
+            LatencyListener listener = new LatencyListener(latencies);
+            // Through the state checker, so a listener that is not removed fails the test.
+            m_state.addServiceListener(m_context.getBundle(), listener, filter);
+            m_listeners.add(listener);
+        }
+
+        // Warm up, and start measuring with an empty histogram.
+        fireEvents(EVENTS / 4);
+        synchronized (latencies) {
+            latencies.clear();
+        }
+        long nanos = fireEvents(EVENTS);
+
+        synchronized (latencies) {
+            System.err.println(record("dispatch", params("listeners", listeners, "selectivity", SELECTIVITY[selectivity], "rate", RATE), EVENTS, nanos)
+                .addMetric("deliveries", latencies.getCount())
+                .addMetric("p50Us", latencies.getPercentile(0.5) / 1000.0)
+                .addMetric("p99Us", latencies.getPercentile(0.99) / 1000.0)
+                .addMetric("maxUs", latencies.getMax() / 1000.0)
+                .addMetric("nsPerListener", (double) nanos / EVENTS / listeners));
+        }
+
+        removeListeners();
+    }
+
+    private void removeListeners() {
+        for (LatencyListener listener : m_listeners) {
+            m_state.removeServiceListener(m_context.getBundle(), listener);
+        }
+        m_listeners.clear();
+    }
+
+    /**
+     * Modifies the service a number of times at the configured rate.
+     * @return The total time spent in {@link ServiceRegistration#setProperties(Dictionary)}.
+     */
+    private long fireEvents(int events) {
+        long interval = 1000000000L / RATE;
+        long total = 0;
+        long next = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            while (System.nanoTime() < next) {
+                Thread.yield();
+            }
+            Dictionary<String, Object> properties = new Hashtable<String, Object>();
+            properties.put("slot", i % 100);
+            properties.put("perf.timestamp", next);
+            long start = System.nanoTime();
+            m_registration.setProperties(properties);
+            total += System.nanoTime() - start;
+            next += interval;
+        }
+        return total;
+    }
+
+    /**
+     * Records the latency of every service event it receives, instead of keeping the events.
+     */
+    private static class LatencyListener extends BundleUtil.GenericListener {
+        private final LatencyHistogram m_latencies;
+
+        LatencyListener(LatencyHistogram latencies) {
+            m_latencies = latencies;
+        }
+
+        @Override
+        public void serviceChanged(ServiceEvent event) {
+            long now = System.nanoTime();
+            Object timestamp = event.getServiceReference().getProperty("perf.timestamp");
+            if (timestamp instanceof Long) {
+                synchronized (m_latencies) {
+                    m_latencies.record(now - (Long) timestamp);
+                }
+            }
+        }
+    }
+}
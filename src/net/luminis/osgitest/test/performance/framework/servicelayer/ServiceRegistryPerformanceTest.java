@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.framework.servicelayer;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+
+import net.luminis.osgitest.test.performance.Benchmark;
+import net.luminis.osgitest.test.performance.PerformanceTestBase;
+
+import org.junit.After;
+import org.junit.Test;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+/**
+ * Measures the throughput and latency of the service registry from several threads at the same time,
+ * with a registry holding 1000 to 100000 services. The services are registered as {@link Runnable},
+ * with an <code>id</code> property, and a <code>group</code> property shared by one in 100 services.
+ * <br />
+ * Every benchmark runs on one thread, and on as many threads as there are cores (at least two).
+ * The largest registry can be set with the system property {@link #PROP_MAX_SERVICES}.
+ */
+public class ServiceRegistryPerformanceTest extends PerformanceTestBase {
+
+    public static final String PROP_MAX_SERVICES = "net.luminis.osgitest.benchmark.registry.services";
+
+    private static final int MAX_SERVICES = Integer.getInteger(PROP_MAX_SERVICES, 100000);
+    private static final String SERVICE = Runnable.class.getName();
+    private static final Runnable RUNNABLE = new Runnable() {
+        public void run() {
+        }
+    };
+
+    private final List<ServiceRegistration> m_registrations = new ArrayList<ServiceRegistration>();
+
+    private final ThreadLocal<Random> m_random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    @After
+    public void unregisterServices() {
+        for (ServiceRegistration registration : m_registrations) {
+            registration.unregister();
+        }
+        m_registrations.clear();
+    }
+
+    @Test
+    public void testRegisterUnregister() throws Exception {
+        for (int services : getRegistrySizes()) {
+            fillRegistry(services);
+            for (int threads : getThreadCounts()) {
+                measure("registerUnregister", services, threads, new Benchmark.Operation() {
+                    public int run() throws Exception {
+                        ServiceRegistration registration = m_context.registerService(SERVICE, RUNNABLE, createProperties(-1));
+                        registration.unregister();
+                        return 1;
+                    }
+                });
+            }
+        }
+    }
+
+    @Test
+    public void testGetServiceReferences() throws Exception {
+        for (final int services : getRegistrySizes()) {
+            fillRegistry(services);
+            for (int threads : getThreadCounts()) {
+                measure("getServiceReferences(id)", services, threads, new Benchmark.Operation() {
+                    public int run() throws Exception {
+                        ServiceReference[] references = m_context.getServiceReferences(SERVICE, "(id=" + m_random.get().nextInt(services) + ")");
+                        return references.length;
+                    }
+                });
+                measure("getServiceReferences(group)", services, threads, new Benchmark.Operation() {
+                    public int run() throws Exception {
+                        ServiceReference[] references = m_context.getServiceReferences(SERVICE, "(&(group=" + m_random.get().nextInt(100) + ")(id>=0))");
+                        return references.length;
+                    }
+                });
+            }
+        }
+    }
+
+    @Test
+    public void testGetUngetService() throws Exception {
+        for (int services : getRegistrySizes()) {
+            fillRegistry(services);
+            final ServiceReference[] references = new ServiceReference[services];
+            for (int i = 0; i < services; i++) {
+                references[i] = m_registrations.get(i).getReference();
+            }
+            for (int threads : getThreadCounts()) {
+                measure("getUngetService", services, threads, new Benchmark.Operation() {
+                    public int run() throws Exception {
+                        ServiceReference reference = references[m_random.get().nextInt(references.length)];
+                        Object service = m_context.getService(reference);
+                        m_context.ungetService(reference);
+                        return (service == RUNNABLE) ? 1 : 0;
+                    }
+                });
+            }
+        }
+    }
+
+    private void measure(String name, int services, int threads, Benchmark.Operation operation) throws Exception {
+        Benchmark.Result result = m_benchmark.measureConcurrent(name, params("services", services, "threads", threads), threads, operation);
+        m_report.add(result);
+        System.err.println(result);
+    }
+
+    /**
+     * Registers services until the registry holds the given number of them.
+     */
+    private void fillRegistry(int services) {
+        for (int i = m_registrations.size(); i < services; i++) {
+            m_registrations.add(m_context.registerService(SERVICE, RUNNABLE, createProperties(i)));
+        }
+    }
+
+    private static Dictionary<String, Object> createProperties(int id) {
+        Dictionary<String, Object> properties = new Hashtable<String, Object>();
+        properties.put("id", id);
+        properties.put("group", Math.abs(id % 100));
+        return properties;
+    }
+
+    private static List<Integer> getRegistrySizes() {
+        List<Integer> result = new ArrayList<Integer>();
+        for (int services = 1000; services <= MAX_SERVICES; services *= 10) {
+            result.add(services);
+        }
+        return result;
+    }
+
+    private static int[] getThreadCounts() {
+        return new int[] {1, Math.max(2, Runtime.getRuntime().availableProcessors())};
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.util.ldap;
+
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import net.luminis.osgitest.test.framework.util.ldap.FrameworkFilterDictionaryTest.FilterTest;
+import net.luminis.osgitest.test.performance.Benchmark;
+import net.luminis.osgitest.test.performance.PerformanceTestBase;
+
+import org.junit.Test;
+import org.osgi.framework.Filter;
+
+/**
+ * Benchmarks the framework's filter implementation: parsing filters with {@link org.osgi.framework.BundleContext#createFilter(String)},
+ * and matching them against dictionaries with {@link Filter#match(Dictionary)}.
+ * <br />
+ * The benchmarks are parameterized by the number of clauses in a filter, the length of the attributes
+ * and values, and (for matching) the kind of value found in the dictionary, following the shapes
+ * used in {@link net.luminis.osgitest.test.framework.util.ldap.FrameworkFilterDictionaryTest}.
+ */
+public class FilterPerformanceTest extends PerformanceTestBase {
+
+    private static final int[] CLAUSES = {1, 4, 16};
+    private static final int[] LENGTHS = {4, 32};
+
+    /**
+     * The kinds of values put in the dictionary a filter is matched against.
+     */
+    private enum Shape {
+        STRING, STRING_ARRAY, INTEGER_ARRAY, VECTOR, SET, COMPARABLE;
+
+        /**
+         * Returns the value a filter should test for.
+         */
+        String filterValue(String value) {
+            return (this == INTEGER_ARRAY) ? String.valueOf(value.length()) : value;
+        }
+
+        /**
+         * Returns a dictionary value containing the given value.
+         */
+        Object dictionaryValue(String value) {
+            switch (this) {
+                case STRING:
+                    return value;
+                case STRING_ARRAY:
+                    return new String[] {"hello", "bye", value};
+                case INTEGER_ARRAY:
+                    return new Integer[] {-1, 0, value.length()};
+                case VECTOR:
+                    return new Vector<String>(Arrays.asList("hello", "bye", value));
+                case SET:
+                    return new HashSet<String>(Arrays.asList("hello", "bye", value));
+                default:
+                    return new FilterTest(value);
+            }
+        }
+    }
+
+    /**
+     * Measures the throughput of parsing filters.
+     */
+    @Test
+    public void testCreateFilterPerformance() throws Exception {
+        for (int clauses : CLAUSES) {
+            for (int length : LENGTHS) {
+                final String filter = createFilterString(clauses, length, Shape.STRING);
+                measure("createFilter", params("clauses", clauses, "length", length), new Benchmark.Operation() {
+                    public int run() throws Exception {
+                        return m_context.createFilter(filter).hashCode();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Measures the throughput of matching a filter against a dictionary, for which all clauses match.
+     */
+    @Test
+    public void testMatchPerformance() throws Exception {
+        for (Shape shape : Shape.values()) {
+            for (int clauses : CLAUSES) {
+                for (int length : LENGTHS) {
+                    final Filter filter = m_context.createFilter(createFilterString(clauses, length, shape));
+                    final Dictionary<String, Object> dict = createDictionary(clauses, length, shape);
+                    assert filter.match(dict) : "Filter " + filter + " should match " + dict;
+                    measure("match", params("shape", shape, "clauses", clauses, "length", length), new Benchmark.Operation() {
+                        public int run() throws Exception {
+                            return filter.match(dict) ? 1 : 0;
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a filter of the form <code>(&(attr0=value0)(attr1=value1)...)</code>, in which the
+     * attributes and values are padded to the given length.
+     */
+    private static String createFilterString(int clauses, int length, Shape shape) {
+        StringBuilder result = new StringBuilder();
+        if (clauses > 1) {
+            result.append("(&");
+        }
+        for (int i = 0; i < clauses; i++) {
+            result.append('(').append(pad("attr" + i, length)).append('=').append(shape.filterValue(pad("value" + i, length))).append(')');
+        }
+        if (clauses > 1) {
+            result.append(')');
+        }
+        return result.toString();
+    }
+
+    private static Dictionary<String, Object> createDictionary(int clauses, int length, Shape shape) {
+        Dictionary<String, Object> result = new Hashtable<String, Object>();
+        for (int i = 0; i < clauses; i++) {
+            result.put(pad("attr" + i, length), shape.dictionaryValue(pad("value" + i, length)));
+        }
+        return result;
+    }
+
+    private static String pad(String s, int length) {
+        StringBuilder result = new StringBuilder(s);
+        while (result.length() < length) {
+            result.append('x');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.performance.util.ldap;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import net.luminis.osgitest.test.framework.util.ldap.FilterGenerator;
+import net.luminis.osgitest.test.framework.util.ldap.FrameworkFilterSyntaxTest;
+import net.luminis.osgitest.test.framework.util.ldap.ParallelFilterSweep;
+import net.luminis.osgitest.test.performance.PerformanceTestBase;
+
+import org.junit.Test;
+import org.osgi.framework.InvalidSyntaxException;
+
+/**
+ * Measures how the filter syntax sweep of {@link FrameworkFilterSyntaxTest} scales with the number of
+ * threads, and reports the speedup compared to a single thread. Since all threads create and match filters
+ * at the same time, this also shows how well the framework's filter implementation handles concurrent use.
+ * <br />
+ * The number of filters in a sweep can be set with the system property {@link #PROP_FILTERS}.
+ */
+public class FilterSweepPerformanceTest extends PerformanceTestBase {
+
+    public static final String PROP_FILTERS = "net.luminis.osgitest.benchmark.sweep.filters";
+
+    private static final Dictionary<String, Object> EMPTY = new Hashtable<String, Object>();
+
+    @Test
+    public void testSweepSpeedup() throws Exception {
+        final FilterGenerator generator = FrameworkFilterSyntaxTest.createGenerator(2, 2, 2);
+        long size = Math.min(Long.getLong(PROP_FILTERS, 200000), generator.size());
+
+        List<Integer> threadCounts = new ArrayList<Integer>();
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(cores);
+
+        ParallelFilterSweep.Checker checker = new ParallelFilterSweep.Checker() {
+            public long check(long from, long to, List<String> failures) throws Exception {
+                FilterGenerator.Range range = generator.range(from, to);
+                long count = 0;
+                while (range.next()) {
+                    count++;
+                    try {
+                        m_context.createFilter(range.filter()).match(EMPTY);
+                    }
+                    catch (InvalidSyntaxException e) {
+                        failures.add(range.filter() + ": " + e.getMessage());
+                    }
+                }
+                return count;
+            }
+        };
+
+        // Warm up, so the first measurement is not penalized.
+        new ParallelFilterSweep(cores).run(size / 4, checker);
+
+        long singleThreaded = 0;
+        for (int threads : threadCounts) {
+            long start = System.nanoTime();
+            ParallelFilterSweep.Result result = new ParallelFilterSweep(threads).run(size, checker);
+            long nanos = System.nanoTime() - start;
+            assert result.getFailures().isEmpty() : result.describeFailures();
+
+            if (threads == 1) {
+                singleThreaded = nanos;
+            }
+            double speedup = (double) singleThreaded / nanos;
+            record("sweep", params("threads", threads), result.getChecked(), nanos)
+                .addMetric("filters", result.getChecked())
+                .addMetric("speedup", speedup);
+            System.err.printf("Swept %d filters on %d threads in %d ms, speedup %.2f.\n", result.getChecked(), threads, nanos / 1000000, speedup);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+/**
+ * Output stream to generate a jar into, which hands the result to the framework without copying it.
+ * Small jars are written into a byte array taken from a pool; once a jar grows beyond the size set
+ * with the system property {@link #PROP_SPILL_SIZE} (in bytes), it is moved to a temporary file,
+ * so large bundles never take more heap than that.
+ * <br />
+ * The stream returned by {@link #getInputStream()} owns the buffer: closing it returns the array to
+ * the pool, or deletes the file. The framework closes the stream passed to
+ * {@link org.osgi.framework.BundleContext#installBundle(String, InputStream)} itself.
+ */
+public class BundleBuffer extends OutputStream {
+
+    public static final String PROP_SPILL_SIZE = "net.luminis.osgitest.bundlebuffer.spill";
+
+    private static final int SPILL_SIZE = Integer.getInteger(PROP_SPILL_SIZE, 4 * 1024 * 1024);
+    private static final int INITIAL_SIZE = 64 * 1024;
+    private static final long MAX_POOL_SIZE = 16 * 1024 * 1024;
+
+    private static final LinkedList<byte[]> s_pool = new LinkedList<byte[]>();
+    private static long s_poolSize = 0;
+
+    private byte[] m_buffer;
+    private int m_count = 0;
+    private File m_file = null;
+    private OutputStream m_fileOut = null;
+    private boolean m_released = false;
+
+    private BundleBuffer(byte[] buffer) {
+        m_buffer = buffer;
+    }
+
+    /**
+     * Returns an empty buffer, reusing an array from the pool when there is one.
+     */
+    public static BundleBuffer acquire() {
+        synchronized (s_pool) {
+            if (!s_pool.isEmpty()) {
+                byte[] buffer = s_pool.removeLast();
+                s_poolSize -= buffer.length;
+                return new BundleBuffer(buffer);
+            }
+        }
+        return new BundleBuffer(new byte[Math.min(INITIAL_SIZE, SPILL_SIZE)]);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (ensureCapacity(1)) {
+            m_buffer[m_count++] = (byte) b;
+        }
+        else {
+            m_fileOut.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (ensureCapacity(len)) {
+            System.arraycopy(b, off, m_buffer, m_count, len);
+            m_count += len;
+        }
+        else {
+            m_fileOut.write(b, off, len);
+        }
+    }
+
+    /**
+     * Makes room for <code>len</code> more bytes in memory, spilling to a file when that would
+     * exceed the spill size.
+     * @return <code>true</code> when the bytes should be written to the array.
+     */
+    private boolean ensureCapacity(int len) throws IOException {
+        if (m_released) {
+            throw new IOException("This buffer has been released.");
+        }
+        if (m_file != null) {
+            return false;
+        }
+        long needed = (long) m_count + len;
+        if (needed > SPILL_SIZE) {
+            spill();
+            return false;
+        }
+        if (needed > m_buffer.length) {
+            byte[] grown = new byte[(int) Math.min(SPILL_SIZE, Math.max(needed, 2L * m_buffer.length))];
+            System.arraycopy(m_buffer, 0, grown, 0, m_count);
+            m_buffer = grown;
+        }
+        return true;
+    }
+
+    private void spill() throws IOException {
+        m_file = File.createTempFile("bundle", ".jar");
+        m_file.deleteOnExit();
+        m_fileOut = new BufferedOutputStream(new FileOutputStream(m_file), INITIAL_SIZE);
+        m_fileOut.write(m_buffer, 0, m_count);
+        recycle(m_buffer);
+        m_buffer = null;
+    }
+
+    /**
+     * Returns the number of bytes written.
+     */
+    public long size() {
+        return (m_file == null) ? m_count : m_file.length();
+    }
+
+    /**
+     * Returns whether the content has been moved to a temporary file.
+     */
+    public boolean isSpilled() {
+        return m_file != null;
+    }
+
+    /**
+     * Returns a stream on the content, which releases this buffer when it is closed. No more
+     * bytes can be written once the stream has been taken.
+     */
+    public InputStream getInputStream() throws IOException {
+        close();
+        InputStream in = (m_file == null) ? new ByteArrayInputStream(m_buffer, 0, m_count) : new FileInputStream(m_file);
+        return new FilterInputStream(in) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                }
+                finally {
+                    release();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (m_fileOut != null) {
+            m_fileOut.close();
+        }
+    }
+
+    /**
+     * Returns the array to the pool, or deletes the temporary file. Releasing twice does nothing.
+     */
+    public synchronized void release() {
+        if (m_released) {
+            return;
+        }
+        m_released = true;
+        if (m_buffer != null) {
+            recycle(m_buffer);
+            m_buffer = null;
+        }
+        if (m_file != null) {
+            try {
+                close();
+            }
+            catch (IOException e) {
+                // The file is deleted anyway.
+            }
+            m_file.delete();
+        }
+    }
+
+    private static void recycle(byte[] buffer) {
+        synchronized (s_pool) {
+            if (s_poolSize + buffer.length <= MAX_POOL_SIZE) {
+                s_pool.add(buffer);
+                s_poolSize += buffer.length;
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+
+import net.luminis.osgitest.testhelper.BundleSpecifier;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+
+/**
+ * Content addressed cache for the jars generated from {@link BundleSpecifier}s. The key is a
+ * hash of the canonical form of the specifier: its manifest headers (name, imports, exports,
+ * uses, classpath, fragment host) and everything packed into it, including the bytecode of
+ * packed classes. Jars are kept in memory with LRU eviction, and optionally in a directory so
+ * they survive the framework JVM.
+ * <br />
+ * The cache is configured with the system properties {@link #PROP_MAX_SIZE} (in bytes) and
+ * {@link #PROP_DIRECTORY}; these can be passed to the framework JVM using the paxVmOption
+ * of the osgitest task.
+ */
+public class BundleCache {
+
+    public static final String PROP_MAX_SIZE = "net.luminis.osgitest.bundlecache.size";
+    public static final String PROP_DIRECTORY = "net.luminis.osgitest.bundlecache.dir";
+
+    private static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static BundleCache s_instance;
+
+    private final long m_maxSize;
+    private final File m_directory;
+    private final LinkedHashMap<String, byte[]> m_jars = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    private long m_size = 0;
+    private long m_hits = 0;
+    private long m_misses = 0;
+
+    public BundleCache(long maxSize, File directory) {
+        m_maxSize = maxSize;
+        m_directory = directory;
+        if (m_directory != null) {
+            m_directory.mkdirs();
+        }
+    }
+
+    /**
+     * Returns the cache shared by all tests in this framework, configured from the system properties.
+     */
+    public static synchronized BundleCache getInstance() {
+        if (s_instance == null) {
+            String directory = System.getProperty(PROP_DIRECTORY);
+            s_instance = new BundleCache(Long.getLong(PROP_MAX_SIZE, DEFAULT_MAX_SIZE),
+                (directory == null) ? null : new File(directory));
+        }
+        return s_instance;
+    }
+
+    /**
+     * Installs the bundle described by the specifier, generating its jar only when it is not cached.
+     */
+    public Bundle installBundle(BundleContext context, BundleSpecifier specifier) throws BundleException, IOException {
+        return context.installBundle(specifier.getName(), generateBundle(specifier));
+    }
+
+    /**
+     * Returns a stream on the jar for the specifier. On a cache hit, the stream reads the cached
+     * bytes directly; they are never copied.
+     */
+    public ByteArrayInputStream generateBundle(BundleSpecifier specifier) throws IOException {
+        String key = getKey(specifier);
+        byte[] jar = get(key);
+        if (jar == null) {
+            ByteArrayInputStream generated = specifier.toInputStream();
+            jar = new byte[generated.available()];
+            new DataInputStream(generated).readFully(jar);
+            put(key, jar);
+        }
+        return new ByteArrayInputStream(jar);
+    }
+
+    public synchronized long getHits() {
+        return m_hits;
+    }
+
+    public synchronized long getMisses() {
+        return m_misses;
+    }
+
+    private synchronized byte[] get(String key) throws IOException {
+        byte[] jar = m_jars.get(key);
+        if ((jar == null) && (m_directory != null)) {
+            File file = new File(m_directory, key + ".jar");
+            if (file.isFile()) {
+                jar = new byte[(int) file.length()];
+                DataInputStream in = new DataInputStream(new FileInputStream(file));
+                try {
+                    in.readFully(jar);
+                }
+                finally {
+                    in.close();
+                }
+                remember(key, jar);
+            }
+        }
+        if (jar == null) {
+            m_misses++;
+        }
+        else {
+            m_hits++;
+        }
+        return jar;
+    }
+
+    private synchronized void put(String key, byte[] jar) throws IOException {
+        remember(key, jar);
+        if (m_directory != null) {
+            // Write to a temporary file first, so other framework JVMs never see a partial jar.
+            File tmp = File.createTempFile(key, ".tmp", m_directory);
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(jar);
+            }
+            finally {
+                out.close();
+            }
+            if (!tmp.renameTo(new File(m_directory, key + ".jar"))) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private void remember(String key, byte[] jar) {
+        if (jar.length > m_maxSize) {
+            return;
+        }
+        byte[] old = m_jars.put(key, jar);
+        m_size += jar.length - ((old == null) ? 0 : old.length);
+        Iterator<byte[]> eldest = m_jars.values().iterator();
+        while (m_size > m_maxSize) {
+            m_size -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Returns the hex encoded SHA-1 hash of the canonical form of the specifier.
+     */
+    public static String getKey(BundleSpecifier specifier) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+        update(digest, specifier);
+        byte[] hash = digest.digest();
+        char[] key = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            key[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+            key[2 * i + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(key);
+    }
+
+    private static void update(MessageDigest digest, BundleSpecifier specifier) throws IOException {
+        // The manifest covers the name, imports, exports, uses, classpath and fragment host.
+        // Its attributes are kept in a hash map, so they are sorted to get a stable key.
+        Map<String, String> headers = new TreeMap<String, String>();
+        for (Map.Entry<Object, Object> header : specifier.getManifest().getMainAttributes().entrySet()) {
+            headers.put(((Attributes.Name) header.getKey()).toString(), (String) header.getValue());
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            update(digest, "H" + header.getKey() + ":" + header.getValue());
+        }
+
+        for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(getPackedEntries(specifier)).entrySet()) {
+            Object packed = entry.getValue();
+            update(digest, "E" + entry.getKey());
+            if (packed instanceof Class) {
+                // The bytecode, not just the name, since the directory outlives recompiled tests.
+                update(digest, "C" + ((Class<?>) packed).getName());
+                updateClass(digest, (Class<?>) packed);
+            }
+            else if (packed instanceof BundleSpecifier) {
+                update(digest, "B");
+                update(digest, (BundleSpecifier) packed);
+            }
+            else if (packed instanceof ByteArrayOutputStream) {
+                update(digest, "S");
+                digest.update(((ByteArrayOutputStream) packed).toByteArray());
+            }
+            else {
+                throw new IOException("Unable to create a cache key for packed entry " + entry.getKey() + " of " + specifier.getName());
+            }
+        }
+    }
+
+    private static void updateClass(MessageDigest digest, Class<?> c) throws IOException {
+        String resource = c.getName().replace('.', '/') + ".class";
+        ClassLoader loader = (c.getClassLoader() == null) ? ClassLoader.getSystemClassLoader() : c.getClassLoader();
+        InputStream in = loader.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Unable to read the bytecode of " + c.getName() + " to create a cache key");
+        }
+        try {
+            byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static void update(MessageDigest digest, String s) throws IOException {
+        digest.update(s.getBytes("UTF-8"));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * The packed entries are not exposed by the specifier, so they are read reflectively.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getPackedEntries(BundleSpecifier specifier) throws IOException {
+        try {
+            Field toPack = BundleSpecifier.class.getDeclaredField("m_toPack");
+            toPack.setAccessible(true);
+            return (Map<String, Object>) toPack.get(specifier);
+        }
+        catch (Exception e) {
+            IOException ioe = new IOException("Unable to read the packed entries of " + specifier.getName());
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+}
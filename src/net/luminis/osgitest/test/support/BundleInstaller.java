@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import net.luminis.osgitest.testhelper.BundleSpecifier;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+/**
+ * Installs a batch of bundles in one go: the jars are generated in parallel, then installed in the
+ * order given. Benchmarks can have the whole batch resolved with a single call to
+ * {@link PackageAdmin#resolveBundles(Bundle[])}, see {@link #setResolve(boolean)}; conformance tests
+ * resolve themselves, since resolving is what they check.
+ * <br />
+ * Small batches are generated on the calling thread; larger ones use a pool of daemon threads that
+ * is shared by all installers.
+ * <br />
+ * The jars are generated before anything is installed, so a fragment in the batch should name its host
+ * with {@link BundleSpecifier#setFragmentHost(String)}, not with a {@link Bundle} from the same batch.
+ */
+public class BundleInstaller {
+
+    private final BundleContext m_context;
+    private final PackageAdmin m_admin;
+    /**
+     * The number of jars below which generating them in parallel does not pay off.
+     */
+    private static final int MIN_PARALLEL_JARS = 16;
+
+    private static ExecutorService s_executor;
+
+    private boolean m_resolve = false;
+
+    /**
+     * @param admin The package admin used to resolve the batch; may be <code>null</code> when
+     * resolving is switched off with {@link #setResolve(boolean)}.
+     */
+    public BundleInstaller(BundleContext context, PackageAdmin admin) {
+        m_context = context;
+        m_admin = admin;
+    }
+
+    /**
+     * Sets whether the batch is resolved after installing it; defaults to <code>false</code>.
+     */
+    public BundleInstaller setResolve(boolean resolve) {
+        m_resolve = resolve;
+        return this;
+    }
+
+    /**
+     * Installs the bundles described by the specifiers.
+     * @return The installed bundles, in the order of the specifiers.
+     */
+    public Bundle[] installBundles(BundleSpecifier... specifiers) throws BundleException, IOException {
+        String[] locations = new String[specifiers.length];
+        List<Callable<InputStream>> jars = new ArrayList<Callable<InputStream>>();
+        for (int i = 0; i < specifiers.length; i++) {
+            final BundleSpecifier specifier = specifiers[i];
+            locations[i] = specifier.getName();
+            jars.add(new Callable<InputStream>() {
+                public InputStream call() throws IOException {
+                    return specifier.toInputStream();
+                }
+            });
+        }
+        return install(locations, jars);
+    }
+
+    /**
+     * Installs the given synthetic bundles.
+     * @return The installed bundles, in the order of the list.
+     */
+    public Bundle[] installBundles(List<SyntheticBundle> bundles) throws BundleException, IOException {
+        String[] locations = new String[bundles.size()];
+        List<Callable<InputStream>> jars = new ArrayList<Callable<InputStream>>();
+        for (int i = 0; i < locations.length; i++) {
+            final SyntheticBundle bundle = bundles.get(i);
+            locations[i] = bundle.getName();
+            jars.add(new Callable<InputStream>() {
+                public InputStream call() throws IOException {
+                    return bundle.toInputStream();
+                }
+            });
+        }
+        return install(locations, jars);
+    }
+
+    private Bundle[] install(String[] locations, List<Callable<InputStream>> jars) throws BundleException, IOException {
+        InputStream[] streams = generate(jars);
+        Bundle[] bundles = new Bundle[locations.length];
+        try {
+            for (int i = 0; i < bundles.length; i++) {
+                // The framework closes the stream, which releases pooled buffers.
+                InputStream stream = streams[i];
+                streams[i] = null;
+                bundles[i] = m_context.installBundle(locations[i], stream);
+            }
+        }
+        finally {
+            for (InputStream stream : streams) {
+                if (stream != null) {
+                    stream.close();
+                }
+            }
+        }
+        if (m_resolve && (bundles.length > 0)) {
+            m_admin.resolveBundles(bundles);
+        }
+        return bundles;
+    }
+
+    private InputStream[] generate(List<Callable<InputStream>> jars) throws IOException {
+        InputStream[] result = new InputStream[jars.size()];
+        if ((result.length < MIN_PARALLEL_JARS) || (Runtime.getRuntime().availableProcessors() == 1)) {
+            for (int i = 0; i < result.length; i++) {
+                result[i] = call(jars.get(i));
+            }
+            return result;
+        }
+
+        ExecutorService executor = getExecutor();
+        List<Future<InputStream>> futures = new ArrayList<Future<InputStream>>();
+        try {
+            for (Callable<InputStream> jar : jars) {
+                futures.add(executor.submit(jar));
+            }
+            for (int i = 0; i < result.length; i++) {
+                result[i] = get(futures.get(i));
+            }
+            return result;
+        }
+        finally {
+            // Do not leave jars of a failed batch generating in the shared pool.
+            for (Future<InputStream> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns the pool shared by all installers; its threads are daemons, so they do not keep the framework alive.
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (s_executor == null) {
+            s_executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "bundle generator");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return s_executor;
+    }
+
+    private static InputStream call(Callable<InputStream> jar) throws IOException {
+        try {
+            return jar.call();
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Unable to generate a bundle.", e);
+        }
+    }
+
+    private static InputStream get(Future<InputStream> jar) throws IOException {
+        try {
+            return jar.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while generating bundles.", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unable to generate a bundle.", cause);
+        }
+    }
+}
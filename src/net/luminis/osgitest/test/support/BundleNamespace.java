@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.luminis.osgitest.testhelper.BundleSpecifier;
+import net.luminis.osgitest.testhelper.BundleUtil;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+
+/**
+ * Keeps the bundles of one scenario apart from those of other scenarios in the same framework.
+ * Every namespace has a unique symbolic name prefix, below {@link BundleUtil#BUNDLE_PREFIX}, and
+ * salts the package versions of its imports and exports: the major version is moved into a band
+ * of {@link #BAND} versions of its own. Version <code>1.2</code> becomes <code>3001.2</code> in the
+ * third namespace, and range <code>[1.0,2.0)</code> becomes <code>[3001.0,3002.0)</code>, so ranges
+ * keep their meaning, but never match an export of another namespace.
+ * <br />
+ * Only versioned packages created using this namespace are salted; system packages are not affected.
+ * Imports and exports without a version keep the defaults of the spec, so they are not isolated:
+ * an unversioned import matches the exports of every namespace. Run scenarios that need them
+ * on their own, not together with other scenarios using the same packages.
+ * Versions read back from the framework can be mapped back using {@link #unsalt(String)}.
+ */
+public class BundleNamespace {
+
+    /**
+     * The number of major versions in a namespace.
+     */
+    public static final int BAND = 1000;
+
+    private static final AtomicInteger s_counter = new AtomicInteger();
+
+    private final BundleUtil m_bu;
+    private final int m_index;
+
+    public BundleNamespace(BundleUtil bu) {
+        m_bu = bu;
+        m_index = s_counter.incrementAndGet();
+    }
+
+    public String getId() {
+        return "ns" + m_index;
+    }
+
+    /**
+     * Returns the prefix of the symbolic names of all bundles in this namespace.
+     */
+    public String getPrefix() {
+        return BundleUtil.BUNDLE_PREFIX + getId() + ".";
+    }
+
+    /**
+     * Like {@link BundleUtil#createBundleSpecifier(String)}, with the name inside this namespace.
+     */
+    public BundleSpecifier createBundleSpecifier(String name) {
+        return m_bu.createBundleSpecifier(getId() + "." + name);
+    }
+
+    /**
+     * Creates an export of a package without a version, which the framework takes as <code>0.0.0</code>;
+     * this is not salted.
+     */
+    public BundleSpecifier.ExportPackage createExportPackage(Package p) {
+        return createExportPackage(p, null);
+    }
+
+    /**
+     * Creates an export of a package, with the version salted.
+     * @param version The version, or <code>null</code> or an empty string for none; the export is then not salted.
+     */
+    public BundleSpecifier.ExportPackage createExportPackage(Package p, String version) {
+        BundleSpecifier.ExportPackage result = m_bu.createExportPackage(p);
+        if ((version != null) && (version.trim().length() > 0)) {
+            result.setVersion(salt(version));
+        }
+        return result;
+    }
+
+    /**
+     * Creates an import of a package without a version range, which matches any version, also those
+     * of other namespaces; this is not salted.
+     */
+    public BundleSpecifier.ImportPackage createImportPackage(Package p) {
+        return createImportPackage(p, null);
+    }
+
+    /**
+     * Creates an import of a package, with the version range salted.
+     * @param versionRange The version range, or <code>null</code> or an empty string for none; the import is then not salted.
+     */
+    public BundleSpecifier.ImportPackage createImportPackage(Package p, String versionRange) {
+        BundleSpecifier.ImportPackage result = m_bu.createImportPackage(p);
+        if ((versionRange != null) && (versionRange.trim().length() > 0)) {
+            result.setVersion(saltRange(versionRange));
+        }
+        return result;
+    }
+
+    /**
+     * Creates a synthetic bundle with its name inside this namespace; the versions of its imports
+     * and exports should be salted using {@link #salt(String)} and {@link #saltRange(String)}.
+     */
+    public SyntheticBundle createSyntheticBundle(String name) {
+        return new SyntheticBundle(getId() + "." + name);
+    }
+
+    /**
+     * Moves a version into the band of this namespace.
+     * @param version The version, or <code>null</code> or an empty string for <code>0.0.0</code>.
+     */
+    public String salt(String version) {
+        if ((version == null) || (version.trim().length() == 0)) {
+            return String.valueOf(getBase());
+        }
+        version = version.trim();
+        int dot = version.indexOf('.');
+        int major = Integer.parseInt((dot < 0) ? version : version.substring(0, dot));
+        if ((major < 0) || (major >= BAND)) {
+            throw new IllegalArgumentException("Version " + version + " does not fit in a namespace.");
+        }
+        return (getBase() + major) + ((dot < 0) ? "" : version.substring(dot));
+    }
+
+    /**
+     * Moves a version range into the band of this namespace; a single version <code>v</code>
+     * becomes <code>[v,top)</code>, where <code>top</code> is the end of the band.
+     * @param versionRange The version range, or <code>null</code> or an empty string for the whole band.
+     */
+    public String saltRange(String versionRange) {
+        String top = String.valueOf(getBase() + BAND);
+        if ((versionRange == null) || (versionRange.trim().length() == 0)) {
+            return "[" + salt(null) + "," + top + ")";
+        }
+        versionRange = versionRange.trim();
+        char first = versionRange.charAt(0);
+        if ((first != '[') && (first != '(')) {
+            return "[" + salt(versionRange) + "," + top + ")";
+        }
+        int comma = versionRange.indexOf(',');
+        char last = versionRange.charAt(versionRange.length() - 1);
+        return first + salt(versionRange.substring(1, comma)) + "," + salt(versionRange.substring(comma + 1, versionRange.length() - 1)) + last;
+    }
+
+    /**
+     * Maps a salted version back to the version the scenario used.
+     */
+    public String unsalt(String version) {
+        int dot = version.indexOf('.');
+        int major = Integer.parseInt((dot < 0) ? version : version.substring(0, dot));
+        return (major - getBase()) + ((dot < 0) ? "" : version.substring(dot));
+    }
+
+    private int getBase() {
+        return m_index * BAND;
+    }
+
+    /**
+     * Uninstalls all bundles of this namespace, leaving the bundles of other namespaces alone.
+     * @return The uninstalled bundles, which still need a refresh.
+     */
+    public Bundle[] uninstall(BundleContext context) {
+        List<Bundle> result = new ArrayList<Bundle>();
+        for (Bundle bundle : context.getBundles()) {
+            String name = bundle.getSymbolicName();
+            if ((name != null) && name.startsWith(getPrefix())) {
+                try {
+                    bundle.uninstall();
+                    result.add(bundle);
+                }
+                catch (BundleException e) {
+                    e.printStackTrace(System.err);
+                }
+                catch (IllegalStateException e) {
+                    // Already uninstalled by the scenario itself.
+                }
+            }
+        }
+        return result.toArray(new Bundle[result.size()]);
+    }
+
+    @Override
+    public String toString() {
+        return getId();
+    }
+}
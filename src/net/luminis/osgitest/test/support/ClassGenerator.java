@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Generates minimal class files for synthetic bundles: a public class with a superclass and no
+ * members. Such a class can be loaded, but not instantiated; that is enough to exercise the class
+ * loading of a framework. Letting a class extend a class from an imported package makes loading it
+ * load that class as well, so chains of imports can be walked by loading a single class.
+ */
+public class ClassGenerator {
+
+    private static final int MAGIC = 0xcafebabe;
+    private static final int VERSION_1_5 = 49;
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int ACC_PUBLIC_SUPER = 0x0021;
+
+    private ClassGenerator() {
+    }
+
+    /**
+     * Returns the class file for a class extending <code>java.lang.Object</code>.
+     */
+    public static byte[] generate(String className) {
+        return generate(className, Object.class.getName());
+    }
+
+    /**
+     * Returns the class file for a class.
+     * @param className The fully qualified name of the class, e.g. <code>perf.p1.C1</code>.
+     * @param superClassName The fully qualified name of its superclass.
+     */
+    public static byte[] generate(String className, String superClassName) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(VERSION_1_5);
+            // Constant pool: #1 and #3 hold the names, #2 and #4 the classes.
+            out.writeShort(5);
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(toInternalName(className));
+            out.writeByte(CONSTANT_CLASS);
+            out.writeShort(1);
+            out.writeByte(CONSTANT_UTF8);
+            out.writeUTF(toInternalName(superClassName));
+            out.writeByte(CONSTANT_CLASS);
+            out.writeShort(3);
+            out.writeShort(ACC_PUBLIC_SUPER);
+            out.writeShort(2);
+            out.writeShort(4);
+            // No interfaces, fields, methods or attributes.
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.close();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("Unable to write to a byte array.", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the path of the class file of a class in a jar.
+     */
+    public static String getPath(String className) {
+        return toInternalName(className) + ".class";
+    }
+
+    private static String toInternalName(String className) {
+        return className.replace('.', '/');
+    }
+}
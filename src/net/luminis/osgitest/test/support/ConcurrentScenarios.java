@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.luminis.osgitest.testhelper.BundleUtil;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Runs independent scenarios at the same time in one framework. Every scenario gets its own
+ * {@link BundleNamespace}, and its bundles are uninstalled as soon as it is done; the refresh for
+ * them is requested from the given {@link RefreshCoordinator}, so it happens at the next reset.
+ * Besides getting more work out of a booted framework, this exercises its thread-safety.
+ * <br />
+ * The number of threads can be set with the system property {@link #PROP_THREADS}; it defaults to
+ * the number of processors, at least two. With a single thread, the scenarios run one after the
+ * other, in the order they were added.
+ */
+public class ConcurrentScenarios {
+
+    public static final String PROP_THREADS = "net.luminis.osgitest.scenarios.threads";
+
+    /**
+     * A scenario that only touches bundles of its own namespace.
+     */
+    public interface Scenario {
+        void run(BundleNamespace namespace) throws Exception;
+    }
+
+    private final BundleContext m_context;
+    private final BundleUtil m_bu;
+    private final RefreshCoordinator m_refresh;
+    private final Map<String, Scenario> m_scenarios = new LinkedHashMap<String, Scenario>();
+    private int m_threads = getDefaultThreads();
+
+    public ConcurrentScenarios(BundleContext context, BundleUtil bu, RefreshCoordinator refresh) {
+        m_context = context;
+        m_bu = bu;
+        m_refresh = refresh;
+    }
+
+    /**
+     * Sets the number of threads running scenarios; defaults to the value of {@link #PROP_THREADS}.
+     */
+    public ConcurrentScenarios setThreads(int threads) {
+        m_threads = threads;
+        return this;
+    }
+
+    /**
+     * Adds a scenario; the name is used in the failure message.
+     */
+    public ConcurrentScenarios add(String name, Scenario scenario) {
+        m_scenarios.put(name, scenario);
+        return this;
+    }
+
+    /**
+     * Runs all scenarios, and waits for them to finish.
+     * @param timeout The time all scenarios together may take, in seconds.
+     * @throws AssertionError When any scenario failed or did not finish in time; the message lists
+     * all of them, and the first failure is the cause.
+     */
+    public void run(long timeout) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, m_threads), new ThreadFactory() {
+            private int m_count = 0;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "scenario " + ++m_count);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Map<String, Future<Void>> futures = new LinkedHashMap<String, Future<Void>>();
+        for (Map.Entry<String, Scenario> scenario : m_scenarios.entrySet()) {
+            futures.put(scenario.getKey(), executor.submit(wrap(scenario.getValue())));
+        }
+        executor.shutdown();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        List<String> failed = new ArrayList<String>();
+        Throwable cause = null;
+        for (Map.Entry<String, Future<Void>> future : futures.entrySet()) {
+            try {
+                future.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+            catch (ExecutionException e) {
+                failed.add(future.getKey() + ": " + e.getCause());
+                cause = (cause == null) ? e.getCause() : cause;
+            }
+            catch (TimeoutException e) {
+                failed.add(future.getKey() + ": did not finish within " + timeout + " seconds");
+            }
+        }
+        // A scenario that timed out may be stuck in the framework; it is left to the daemon thread.
+        executor.shutdownNow();
+        if (!failed.isEmpty()) {
+            AssertionError error = new AssertionError(failed.size() + " of " + futures.size() + " scenarios failed: " + failed);
+            error.initCause(cause);
+            throw error;
+        }
+    }
+
+    private static int getDefaultThreads() {
+        int threads = Integer.getInteger(PROP_THREADS, 0);
+        return (threads > 0) ? threads : Math.max(2, Runtime.getRuntime().availableProcessors());
+    }
+
+    private Callable<Void> wrap(final Scenario scenario) {
+        return new Callable<Void>() {
+            public Void call() throws Exception {
+                BundleNamespace namespace = new BundleNamespace(m_bu);
+                try {
+                    scenario.run(namespace);
+                }
+                finally {
+                    Bundle[] bundles = namespace.uninstall(m_context);
+                    if (bundles.length > 0) {
+                        m_refresh.request(bundles);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+}
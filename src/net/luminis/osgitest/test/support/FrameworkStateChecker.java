@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.EventListener;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Takes a snapshot of the state of a running framework, and checks whether a later state
+ * still matches it. Used to make sure a test did not leave bundles, services or listeners
+ * behind that would influence the next test running in the same framework.
+ * <br />
+ * The framework API offers no way to enumerate listeners, so only the listeners that are
+ * added through this checker are verified; a listener is left behind when it was not removed,
+ * and its bundle is still installed. Tests based on {@link WarmFrameworkTestBase} register
+ * their listeners through it, instead of through {@link net.luminis.osgitest.testhelper.BundleUtil}.
+ */
+public class FrameworkStateChecker {
+
+    private final BundleContext m_context;
+    private final Map<Long, String> m_bundles = new HashMap<Long, String>();
+    private final Map<Long, String> m_services = new HashMap<Long, String>();
+    private final List<Listener> m_listeners = new ArrayList<Listener>();
+
+    public FrameworkStateChecker(BundleContext context) {
+        m_context = context;
+    }
+
+    /**
+     * Records the bundles and services that are currently present as the clean state.
+     */
+    public void capture() {
+        m_bundles.clear();
+        m_services.clear();
+        for (Bundle b : m_context.getBundles()) {
+            m_bundles.put(b.getBundleId(), describe(b));
+        }
+        for (ServiceReference ref : getAllServiceReferences()) {
+            m_services.put((Long) ref.getProperty(Constants.SERVICE_ID), describe(ref));
+        }
+    }
+
+    public void addFrameworkListener(FrameworkListener listener) {
+        addFrameworkListener(m_context.getBundle(), listener);
+    }
+
+    public void removeFrameworkListener(FrameworkListener listener) {
+        removeFrameworkListener(m_context.getBundle(), listener);
+    }
+
+    public void addBundleListener(BundleListener listener) {
+        addBundleListener(m_context.getBundle(), listener);
+    }
+
+    public void removeBundleListener(BundleListener listener) {
+        removeBundleListener(m_context.getBundle(), listener);
+    }
+
+    public void addServiceListener(ServiceListener listener, String filter) throws InvalidSyntaxException {
+        addServiceListener(m_context.getBundle(), listener, filter);
+    }
+
+    public void removeServiceListener(ServiceListener listener) {
+        removeServiceListener(m_context.getBundle(), listener);
+    }
+
+    /**
+     * Adds a framework listener on behalf of the given bundle, like
+     * {@link net.luminis.osgitest.testhelper.BundleUtil#registerFrameworkListener} does.
+     */
+    public void addFrameworkListener(Bundle bundle, FrameworkListener listener) {
+        getBundleContext(bundle).addFrameworkListener(listener);
+        m_listeners.add(new Listener(bundle, listener));
+    }
+
+    public void removeFrameworkListener(Bundle bundle, FrameworkListener listener) {
+        getBundleContext(bundle).removeFrameworkListener(listener);
+        m_listeners.remove(new Listener(bundle, listener));
+    }
+
+    /**
+     * Adds a bundle listener on behalf of the given bundle, like
+     * {@link net.luminis.osgitest.testhelper.BundleUtil#registerBundleListener} does.
+     */
+    public void addBundleListener(Bundle bundle, BundleListener listener) {
+        getBundleContext(bundle).addBundleListener(listener);
+        m_listeners.add(new Listener(bundle, listener));
+    }
+
+    public void removeBundleListener(Bundle bundle, BundleListener listener) {
+        getBundleContext(bundle).removeBundleListener(listener);
+        m_listeners.remove(new Listener(bundle, listener));
+    }
+
+    /**
+     * Adds a service listener on behalf of the given bundle, like
+     * {@link net.luminis.osgitest.testhelper.BundleUtil#registerServiceListener} does.
+     */
+    public void addServiceListener(Bundle bundle, ServiceListener listener, String filter) throws InvalidSyntaxException {
+        getBundleContext(bundle).addServiceListener(listener, filter);
+        m_listeners.add(new Listener(bundle, listener));
+    }
+
+    public void removeServiceListener(Bundle bundle, ServiceListener listener) {
+        getBundleContext(bundle).removeServiceListener(listener);
+        m_listeners.remove(new Listener(bundle, listener));
+    }
+
+    /**
+     * Returns a description of everything that differs from the captured state; an empty list
+     * means the framework is clean.
+     */
+    public List<String> findLeaks() {
+        List<String> leaks = new ArrayList<String>();
+        Map<Long, String> bundles = new HashMap<Long, String>();
+        for (Bundle b : m_context.getBundles()) {
+            bundles.put(b.getBundleId(), describe(b));
+            if (!m_bundles.containsKey(b.getBundleId())) {
+                leaks.add("Leftover bundle " + describe(b));
+            }
+        }
+        for (Map.Entry<Long, String> entry : m_bundles.entrySet()) {
+            if (!bundles.containsKey(entry.getKey())) {
+                leaks.add("Missing bundle " + entry.getValue());
+            }
+        }
+        for (ServiceReference ref : getAllServiceReferences()) {
+            if (!m_services.containsKey(ref.getProperty(Constants.SERVICE_ID))) {
+                leaks.add("Leftover service " + describe(ref));
+            }
+        }
+        for (Listener listener : m_listeners) {
+            // The framework removes the listeners of a bundle when it is uninstalled.
+            if (listener.m_bundle.getState() != Bundle.UNINSTALLED) {
+                leaks.add("Leftover listener " + listener.m_listener + " of " + describe(listener.m_bundle));
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * Fails with an AssertionError listing everything that leaked since the captured state.
+     */
+    public void check() {
+        List<String> leaks = findLeaks();
+        if (!leaks.isEmpty()) {
+            StringBuilder message = new StringBuilder("The framework is not in the state it was in before the test:");
+            for (String leak : leaks) {
+                message.append("\n  ").append(leak);
+            }
+            throw new AssertionError(message.toString());
+        }
+    }
+
+    private ServiceReference[] getAllServiceReferences() {
+        try {
+            ServiceReference[] refs = m_context.getAllServiceReferences(null, null);
+            return (refs == null) ? new ServiceReference[0] : refs;
+        }
+        catch (InvalidSyntaxException e) {
+            // Cannot happen, we do not pass a filter.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the context of a bundle; <code>Bundle.getBundleContext()</code> only exists as of
+     * R4.2, so it is called reflectively.
+     */
+    private BundleContext getBundleContext(Bundle bundle) {
+        if (bundle.equals(m_context.getBundle())) {
+            return m_context;
+        }
+        try {
+            Method method = bundle.getClass().getMethod("getBundleContext");
+            method.setAccessible(true);
+            BundleContext context = (BundleContext) method.invoke(bundle);
+            if (context == null) {
+                throw new IllegalStateException("Bundle " + describe(bundle) + " has no context; is it started?");
+            }
+            return context;
+        }
+        catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Bundle.getBundleContext() isn't implemented by the framework", e);
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Bundle.getBundleContext() can't be invoked.", e);
+        }
+    }
+
+    private static String describe(Bundle b) {
+        return b.getSymbolicName() + " (id: " + b.getBundleId() + ", state: " + b.getState() + ")";
+    }
+
+    private static String describe(ServiceReference ref) {
+        StringBuilder classes = new StringBuilder();
+        for (String objectClass : (String[]) ref.getProperty(Constants.OBJECTCLASS)) {
+            if (classes.length() > 0) {
+                classes.append(", ");
+            }
+            classes.append(objectClass);
+        }
+        Bundle owner = ref.getBundle();
+        return "[" + classes + "] (id: " + ref.getProperty(Constants.SERVICE_ID) + ", registered by: "
+            + (owner == null ? "unknown" : owner.getSymbolicName()) + ")";
+    }
+
+    /**
+     * A listener, and the bundle it was added for.
+     */
+    private static class Listener {
+        private final Bundle m_bundle;
+        private final EventListener m_listener;
+
+        Listener(Bundle bundle, EventListener listener) {
+            m_bundle = bundle;
+            m_listener = listener;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Listener) && ((Listener) o).m_bundle.equals(m_bundle) && (((Listener) o).m_listener == m_listener);
+        }
+
+        @Override
+        public int hashCode() {
+            return m_bundle.hashCode() ^ System.identityHashCode(m_listener);
+        }
+    }
+}
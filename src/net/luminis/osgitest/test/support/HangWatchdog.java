@@ -0,0 +1,351 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Watches the test methods for hangs, on the JUnit side of Pax Exam. A test is flagged as hanging when it
+ * runs longer than {@link #PROP_FACTOR} times its baseline duration, and at least {@link #PROP_MINIMUM}
+ * seconds. The baselines are read from the properties file named by {@link #PROP_BASELINE}, by default
+ * <code>baseline.properties</code> in {@link #PROP_DIR}, with the duration in seconds for every
+ * <code>class#method@vendor</code>; the build learns them from the results of earlier runs. Tests
+ * without a baseline are left to their own timeout.
+ * <br />
+ * For a hanging test, the threads of the framework JVM are dumped using <code>jps</code> and
+ * <code>jstack</code>; the framework JVM is the one started with the same {@link #PROP_RUN} as this one.
+ * The dumps and a list of the hangs are written to the directory {@link #PROP_DIR}, which may be shared
+ * by the JVMs of a vendor run. Once {@link #PROP_MAX_HANGS} tests hung, the framework JVM of the hanging
+ * test is killed, and the remaining tests are not run at all.
+ * <br />
+ * The watchdog is switched off when {@link #PROP_DIR} is not set.
+ */
+public class HangWatchdog {
+
+    public static final String PROP_DIR = "net.luminis.osgitest.watchdog.dir";
+    public static final String PROP_BASELINE = "net.luminis.osgitest.watchdog.baseline";
+    public static final String PROP_RUN = "net.luminis.osgitest.watchdog.run";
+    public static final String PROP_FACTOR = "net.luminis.osgitest.watchdog.factor";
+    public static final String PROP_MINIMUM = "net.luminis.osgitest.watchdog.minimum";
+    public static final String PROP_MAX_HANGS = "net.luminis.osgitest.watchdog.maxhangs";
+
+    private static final String BASELINE_FILE = "baseline.properties";
+    private static final String HANGS_FILE = "hangs.txt";
+
+    private static HangWatchdog s_instance;
+
+    private final File m_dir;
+    private final Properties m_baseline = new Properties();
+    private final String m_run;
+    private final double m_factor;
+    private final long m_minimum;
+    private final int m_maxHangs;
+    private Timer m_timer;
+
+    /**
+     * A running test, see {@link HangWatchdog#watch(String, String)}.
+     */
+    public interface Watch {
+        void cancel();
+    }
+
+    private static final Watch NO_WATCH = new Watch() {
+        public void cancel() {
+        }
+    };
+
+    HangWatchdog(File dir, File baseline, String run, double factor, long minimum, int maxHangs) {
+        m_dir = dir;
+        m_run = run;
+        m_factor = factor;
+        m_minimum = minimum;
+        m_maxHangs = maxHangs;
+        if ((dir != null) && baseline.isFile()) {
+            try {
+                InputStream in = new FileInputStream(baseline);
+                try {
+                    m_baseline.load(in);
+                }
+                finally {
+                    in.close();
+                }
+            }
+            catch (IOException e) {
+                System.err.println("Unable to read the test baselines from " + baseline + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * Returns the watchdog configured by the system properties of this JVM.
+     */
+    public static synchronized HangWatchdog getInstance() {
+        if (s_instance == null) {
+            String dir = System.getProperty(PROP_DIR, "");
+            String baseline = System.getProperty(PROP_BASELINE, "");
+            s_instance = new HangWatchdog((dir.length() == 0) ? null : new File(dir),
+                (baseline.length() == 0) ? new File(dir, BASELINE_FILE) : new File(baseline),
+                System.getProperty(PROP_RUN, ""),
+                Double.parseDouble(System.getProperty(PROP_FACTOR, "5")),
+                Long.getLong(PROP_MINIMUM, 10),
+                Integer.getInteger(PROP_MAX_HANGS, 3));
+        }
+        return s_instance;
+    }
+
+    /**
+     * Returns whether so many tests hung that the remaining ones should not run.
+     */
+    public boolean isAborted() {
+        return (m_dir != null) && (m_maxHangs > 0) && (getHangCount() >= m_maxHangs);
+    }
+
+    public int getMaxHangs() {
+        return m_maxHangs;
+    }
+
+    /**
+     * Starts watching a test; the returned watch has to be cancelled when the test is done.
+     * @param name The name of the test method, as Pax Exam reports it: <code>method [vendor]</code>.
+     */
+    public synchronized Watch watch(String className, String name) {
+        String key = getKey(className, name);
+        String baseline = m_baseline.getProperty(key);
+        if ((m_dir == null) || (baseline == null)) {
+            return NO_WATCH;
+        }
+        final long deadline = Math.max(m_minimum * 1000, Math.round(Double.parseDouble(baseline) * 1000 * m_factor));
+        final String description = key + " ran for " + (deadline / 1000.0) + "s, its baseline is " + baseline + "s";
+        final TimerTask task = new TimerTask() {
+            @Override
+            public void run() {
+                hang(description);
+            }
+        };
+        if (m_timer == null) {
+            m_timer = new Timer("hang watchdog", true);
+        }
+        m_timer.schedule(task, deadline);
+        return new Watch() {
+            public void cancel() {
+                task.cancel();
+            }
+        };
+    }
+
+    /**
+     * Returns the key of a test in the baseline: <code>class#method@vendor</code>.
+     */
+    static String getKey(String className, String name) {
+        int open = name.indexOf(" [");
+        if ((open < 0) || !name.endsWith("]")) {
+            return className + "#" + name;
+        }
+        return className + "#" + name.substring(0, open) + "@" + name.substring(open + 2, name.length() - 1);
+    }
+
+    private void hang(String description) {
+        int hangs = recordHang(description);
+        System.err.println("Hang " + hangs + ": " + description);
+        List<String> pids = findFrameworkJvms();
+        File dump = new File(m_dir, "dump-" + hangs + ".txt");
+        try {
+            PrintStream out = new PrintStream(new FileOutputStream(dump), true, "UTF-8");
+            try {
+                out.println(description);
+                if (pids.isEmpty()) {
+                    out.println("No framework JVM found, dumping the test runner instead.");
+                    dumpThisJvm(out);
+                }
+                for (String pid : pids) {
+                    out.println();
+                    out.println("Framework JVM " + pid + ":");
+                    exec(out, getJdkTool("jstack"), pid);
+                }
+            }
+            finally {
+                out.close();
+            }
+            System.err.println("Wrote the thread dump to " + dump);
+        }
+        catch (IOException e) {
+            System.err.println("Unable to write the thread dump to " + dump + ": " + e);
+        }
+        if ((m_maxHangs > 0) && (hangs >= m_maxHangs)) {
+            System.err.println("Aborting the run after " + hangs + " hanging tests.");
+            for (String pid : pids) {
+                kill(pid);
+            }
+        }
+    }
+
+    /**
+     * Adds a hang to the list in the watchdog directory.
+     * @return The number of hangs so far.
+     */
+    private synchronized int recordHang(String description) {
+        m_dir.mkdirs();
+        try {
+            OutputStream out = new FileOutputStream(new File(m_dir, HANGS_FILE), true);
+            try {
+                out.write((description + "\n").getBytes("UTF-8"));
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Unable to record a hang in " + m_dir + ": " + e);
+        }
+        return getHangCount();
+    }
+
+    private int getHangCount() {
+        File hangs = new File(m_dir, HANGS_FILE);
+        if (!hangs.isFile()) {
+            return 0;
+        }
+        int count = 0;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(hangs), "UTF-8"));
+            try {
+                while (reader.readLine() != null) {
+                    count++;
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Unable to read " + hangs + ": " + e);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the process ids of the other JVMs that were started for the same run.
+     */
+    private List<String> findFrameworkJvms() {
+        List<String> result = new ArrayList<String>();
+        if (m_run.length() == 0) {
+            return result;
+        }
+        String self = ManagementFactory.getRuntimeMXBean().getName();
+        self = self.substring(0, Math.max(0, self.indexOf('@')));
+        String marker = "-D" + PROP_RUN + "=" + m_run;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(bytes, true, "UTF-8");
+            exec(out, getJdkTool("jps"), "-v");
+            for (String line : bytes.toString("UTF-8").split("\n")) {
+                String pid = line.trim().split("\\s+")[0];
+                int at = line.indexOf(marker);
+                int end = at + marker.length();
+                if ((at >= 0) && ((end == line.length()) || Character.isWhitespace(line.charAt(end))) && !pid.equals(self)) {
+                    result.add(pid);
+                }
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Unable to list the JVMs: " + e);
+        }
+        return result;
+    }
+
+    private static void dumpThisJvm(PrintStream out) {
+        for (Map.Entry<Thread, StackTraceElement[]> thread : Thread.getAllStackTraces().entrySet()) {
+            out.println();
+            out.println("\"" + thread.getKey().getName() + "\" " + thread.getKey().getState());
+            for (StackTraceElement element : thread.getValue()) {
+                out.println("\tat " + element);
+            }
+        }
+    }
+
+    private static void kill(String pid) {
+        boolean windows = System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+        try {
+            exec(System.err, windows ? "taskkill" : "kill", windows ? "/F /PID " + pid : "-9 " + pid);
+        }
+        catch (IOException e) {
+            System.err.println("Unable to kill framework JVM " + pid + ": " + e);
+        }
+    }
+
+    /**
+     * Returns the path of a tool of the JDK that runs the tests, or just its name when it cannot be found.
+     */
+    private static String getJdkTool(String name) {
+        File home = new File(System.getProperty("java.home"));
+        String suffix = System.getProperty("os.name", "").toLowerCase().startsWith("windows") ? ".exe" : "";
+        for (File bin : new File[] {new File(home, "bin"), new File(home.getParentFile(), "bin")}) {
+            File tool = new File(bin, name + suffix);
+            if (tool.isFile()) {
+                return tool.getPath();
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Runs a command, and copies its output to the given stream.
+     */
+    private static void exec(PrintStream out, String command, String arguments) throws IOException {
+        List<String> commandLine = new ArrayList<String>();
+        commandLine.add(command);
+        for (String argument : arguments.split(" ")) {
+            commandLine.add(argument);
+        }
+        Process process = new ProcessBuilder(commandLine).redirectErrorStream(true).start();
+        process.getOutputStream().close();
+        InputStream in = process.getInputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+        try {
+            process.waitFor();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+/**
+ * Non-blocking alternative for {@link net.luminis.osgitest.testhelper.BundleUtil#refreshFrameworkAndWait(Bundle[])}.
+ * Refresh requests are collected using {@link #request(Bundle[])}, and sent to the framework as a single
+ * {@link PackageAdmin#refreshPackages(Bundle[])} call by {@link #flush()}. Every request returns a future
+ * that is done when the PACKAGES_REFRESHED event of the refresh it ended up in arrives.
+ * <br />
+ * Refreshes are assumed to finish in the order they were started, and every PACKAGES_REFRESHED event
+ * completes the oldest refresh in flight. An event of a refresh started elsewhere would complete a
+ * refresh of this coordinator too early, so all refreshes of a test must go through the coordinator;
+ * {@link WarmFrameworkTestBase} routes {@link net.luminis.osgitest.testhelper.BundleUtil#refreshFrameworkAndWait(Bundle[])}
+ * through it. A refresh that times out is given up: it no longer waits for its event, and a late event
+ * may complete the next refresh too early.
+ */
+public class RefreshCoordinator implements FrameworkListener {
+
+    private final BundleContext m_context;
+    private final PackageAdmin m_admin;
+
+    private final Set<Bundle> m_pending = new LinkedHashSet<Bundle>();
+    private boolean m_pendingAll = false;
+    private RefreshFuture m_pendingFuture = null;
+    private final LinkedList<RefreshFuture> m_inFlight = new LinkedList<RefreshFuture>();
+
+    private long m_requests = 0;
+    private long m_refreshes = 0;
+    private long m_refreshNanos = 0;
+
+    public RefreshCoordinator(BundleContext context, PackageAdmin admin) {
+        m_context = context;
+        m_admin = admin;
+    }
+
+    /**
+     * Requests a refresh of the given bundles, without starting it.
+     * @param bundles The bundles to refresh, or <code>null</code> for all bundles that need it.
+     * @return A future that is done when the refresh containing this request has finished.
+     */
+    public synchronized Future<Void> request(Bundle... bundles) {
+        m_requests++;
+        if (bundles == null) {
+            m_pendingAll = true;
+        }
+        else {
+            m_pending.addAll(Arrays.asList(bundles));
+        }
+        if (m_pendingFuture == null) {
+            m_pendingFuture = new RefreshFuture();
+        }
+        return m_pendingFuture;
+    }
+
+    /**
+     * Starts a single refresh for all pending requests.
+     * @return A future that is done when this refresh has finished; when there was nothing to refresh,
+     * the future of the last refresh in flight, or a future that is already done.
+     */
+    public Future<Void> flush() {
+        RefreshFuture future;
+        Bundle[] bundles;
+        synchronized (this) {
+            if (m_pendingFuture == null) {
+                if (m_inFlight.isEmpty()) {
+                    RefreshFuture done = new RefreshFuture();
+                    done.complete();
+                    return done;
+                }
+                return m_inFlight.getLast();
+            }
+            future = m_pendingFuture;
+            bundles = m_pendingAll ? null : m_pending.toArray(new Bundle[m_pending.size()]);
+            m_pendingFuture = null;
+            m_pendingAll = false;
+            m_pending.clear();
+
+            if (m_inFlight.isEmpty()) {
+                m_context.addFrameworkListener(this);
+            }
+            m_inFlight.add(future);
+            m_refreshes++;
+            future.m_start = System.nanoTime();
+        }
+        m_admin.refreshPackages(bundles);
+        return future;
+    }
+
+    /**
+     * Requests a refresh of the given bundles, and starts it together with all pending requests.
+     */
+    public Future<Void> refresh(Bundle... bundles) {
+        request(bundles);
+        return flush();
+    }
+
+    /**
+     * Stops waiting for a refresh that did not finish in time.
+     */
+    private synchronized void abandon(RefreshFuture future) {
+        if (m_inFlight.remove(future) && m_inFlight.isEmpty()) {
+            m_context.removeFrameworkListener(this);
+        }
+    }
+
+    public synchronized void frameworkEvent(FrameworkEvent event) {
+        if ((event.getType() == FrameworkEvent.PACKAGES_REFRESHED) && !m_inFlight.isEmpty()) {
+            RefreshFuture future = m_inFlight.removeFirst();
+            m_refreshNanos += System.nanoTime() - future.m_start;
+            future.complete();
+            if (m_inFlight.isEmpty()) {
+                m_context.removeFrameworkListener(this);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of refreshes requested.
+     */
+    public synchronized long getRequestCount() {
+        return m_requests;
+    }
+
+    /**
+     * Returns the number of refreshes actually started; lower than the number of requests when they were coalesced.
+     */
+    public synchronized long getRefreshCount() {
+        return m_refreshes;
+    }
+
+    /**
+     * Returns the total time between starting a refresh and its PACKAGES_REFRESHED event, in nanoseconds.
+     */
+    public synchronized long getRefreshNanos() {
+        return m_refreshNanos;
+    }
+
+    private class RefreshFuture implements Future<Void> {
+        private final CountDownLatch m_done = new CountDownLatch(1);
+        private long m_start;
+
+        void complete() {
+            m_done.countDown();
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return m_done.getCount() == 0;
+        }
+
+        public Void get() throws InterruptedException, ExecutionException {
+            m_done.await();
+            return null;
+        }
+
+        public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!m_done.await(timeout, unit)) {
+                abandon(this);
+                throw new TimeoutException("The framework did not finish refreshing within " + timeout + " " + unit + ".");
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.ops4j.pax.exam.junit.JUnit4TestRunner;
+import org.ops4j.pax.exam.junit.internal.JUnit4TestMethod;
+
+/**
+ * Runs a test class like Pax Exam does, but when the system property {@link #PROP_METHODS} names
+ * a file, only the test methods listed in it are run, one <code>class#method</code> per line. The
+ * build writes that file for a run of the tests of some spec sections, so the frameworks for the
+ * other methods are never started.
+ * <br />
+ * Every test method runs under the {@link HangWatchdog}; once it aborted the run, the remaining
+ * methods fail without starting a framework.
+ */
+// Pax Exam's runner throws the deprecated InitializationError; it is named in full, since imports cannot suppress warnings.
+@SuppressWarnings("deprecation")
+public class SpecSectionRunner extends JUnit4TestRunner {
+
+    public static final String PROP_METHODS = "net.luminis.osgitest.spec.methods";
+
+    private static Set<String> s_methods;
+
+    public SpecSectionRunner(final Class<?> testClass) throws org.junit.internal.runners.InitializationError {
+        super(testClass);
+        final Set<String> methods = getSelectedMethods();
+        if (methods == null) {
+            return;
+        }
+        try {
+            filter(new Filter() {
+                @Override
+                public boolean shouldRun(Description description) {
+                    return methods.contains(testClass.getName() + "#" + getMethodName(description));
+                }
+
+                @Override
+                public String describe() {
+                    return "methods in " + System.getProperty(PROP_METHODS);
+                }
+            });
+        }
+        catch (NoTestsRemainException e) {
+            // None of the methods were selected, so the class reports no tests at all.
+        }
+    }
+
+    @Override
+    protected void invokeTestMethod(JUnit4TestMethod method, RunNotifier notifier) {
+        HangWatchdog watchdog = HangWatchdog.getInstance();
+        if (watchdog.isAborted()) {
+            Description description = methodDescription(method);
+            notifier.fireTestStarted(description);
+            notifier.fireTestFailure(new Failure(description,
+                new IllegalStateException("Not run, since " + watchdog.getMaxHangs() + " tests hung before this one.")));
+            notifier.fireTestFinished(description);
+            return;
+        }
+        HangWatchdog.Watch watch = watchdog.watch(getTestClass().getJavaClass().getName(), testName(method));
+        try {
+            super.invokeTestMethod(method, notifier);
+        }
+        finally {
+            watch.cancel();
+        }
+    }
+
+    /**
+     * The display name of a test is <code>method(class)</code>, where Pax Exam can add the framework
+     * to the method, as in <code>method [felix-3.0.1](class)</code>.
+     */
+    private static String getMethodName(Description description) {
+        String name = description.getDisplayName();
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if ((c == '(') || (c == '[') || Character.isWhitespace(c)) {
+                return name.substring(0, i);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Returns the selected methods, or <code>null</code> when all methods should run.
+     */
+    private static synchronized Set<String> getSelectedMethods() throws org.junit.internal.runners.InitializationError {
+        String file = System.getProperty(PROP_METHODS, "");
+        if (file.length() == 0) {
+            return null;
+        }
+        if (s_methods == null) {
+            Set<String> methods = new HashSet<String>();
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+                try {
+                    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                        if (line.trim().length() > 0) {
+                            methods.add(line.trim());
+                        }
+                    }
+                }
+                finally {
+                    reader.close();
+                }
+            }
+            catch (IOException e) {
+                throw new org.junit.internal.runners.InitializationError("Unable to read the selected test methods from " + file + ": " + e);
+            }
+            s_methods = methods;
+        }
+        return s_methods;
+    }
+}
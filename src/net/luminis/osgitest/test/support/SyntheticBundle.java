@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import net.luminis.osgitest.testhelper.BundleSpecifier;
+import net.luminis.osgitest.testhelper.BundleUtil;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+
+/**
+ * Specifies a bundle by package names instead of classes. {@link BundleSpecifier} needs an existing
+ * class for every package; this class is meant for generated bundle graphs, where the packages only
+ * exist in the manifest. The symbolic name gets the same prefix as bundles created using a
+ * {@link BundleSpecifier}, so these bundles are cleaned up after every test as well.
+ */
+public class SyntheticBundle {
+
+    private final String m_name;
+    private final List<String> m_imports = new ArrayList<String>();
+    private final List<String> m_exports = new ArrayList<String>();
+    private final Map<String, Object> m_entries = new LinkedHashMap<String, Object>();
+    private final Map<String, String> m_headers = new LinkedHashMap<String, String>();
+
+    public SyntheticBundle(String name) {
+        m_name = BundleUtil.BUNDLE_PREFIX + name;
+    }
+
+    public String getName() {
+        return m_name;
+    }
+
+    /**
+     * Adds an export of a package.
+     * @param version The version of the export, or <code>null</code> for none.
+     * @param uses The packages this export uses.
+     */
+    public SyntheticBundle addExport(String packageName, String version, String... uses) {
+        StringBuilder statement = new StringBuilder(packageName);
+        if (version != null) {
+            statement.append(";version=\"").append(version).append('"');
+        }
+        if (uses.length > 0) {
+            statement.append(";uses:=\"");
+            for (int i = 0; i < uses.length; i++) {
+                statement.append(i == 0 ? "" : ",").append(uses[i]);
+            }
+            statement.append('"');
+        }
+        m_exports.add(statement.toString());
+        return this;
+    }
+
+    /**
+     * Adds an import of a package.
+     * @param versionRange The version range to import, or <code>null</code> for none.
+     */
+    public SyntheticBundle addImport(String packageName, String versionRange) {
+        m_imports.add((versionRange == null) ? packageName : packageName + ";version=\"" + versionRange + "\"");
+        return this;
+    }
+
+    /**
+     * Sets a manifest header that is not covered by the other methods, like Fragment-Host or Bundle-ClassPath.
+     */
+    public SyntheticBundle setHeader(String name, String value) {
+        m_headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * Adds an entry with the given content to the jar.
+     */
+    public SyntheticBundle addEntry(String path, byte[] content) {
+        m_entries.put(path, content);
+        return this;
+    }
+
+    /**
+     * Adds an embedded jar to the jar, for use on the Bundle-ClassPath. The embedded jar is streamed
+     * into the entry when this bundle is written, without an intermediate copy.
+     */
+    public SyntheticBundle addEntry(String path, SyntheticBundle embedded) {
+        m_entries.put(path, embedded);
+        return this;
+    }
+
+    public Manifest getManifest() {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.putValue("Manifest-Version", "1");
+        attributes.putValue("Bundle-ManifestVersion", "2");
+        attributes.putValue("Bundle-Name", m_name);
+        attributes.putValue("Bundle-SymbolicName", m_name);
+        if (!m_imports.isEmpty()) {
+            attributes.putValue("Import-Package", join(m_imports));
+        }
+        if (!m_exports.isEmpty()) {
+            attributes.putValue("Export-Package", join(m_exports));
+        }
+        for (Map.Entry<String, String> header : m_headers.entrySet()) {
+            attributes.putValue(header.getKey(), header.getValue());
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the jar to the given stream, leaving the stream open.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        JarOutputStream jar = new JarOutputStream(out, getManifest());
+        for (Map.Entry<String, Object> entry : m_entries.entrySet()) {
+            jar.putNextEntry(new JarEntry(entry.getKey()));
+            if (entry.getValue() instanceof SyntheticBundle) {
+                ((SyntheticBundle) entry.getValue()).writeTo(jar);
+            }
+            else {
+                jar.write((byte[]) entry.getValue());
+            }
+            jar.closeEntry();
+        }
+        jar.finish();
+    }
+
+    public byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeTo(bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns a stream on the jar, generated into a {@link BundleBuffer}; closing the stream releases the buffer.
+     */
+    public InputStream toInputStream() throws IOException {
+        BundleBuffer buffer = BundleBuffer.acquire();
+        try {
+            writeTo(buffer);
+            return buffer.getInputStream();
+        }
+        catch (IOException e) {
+            buffer.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Installs this bundle, using its name as location.
+     */
+    public Bundle install(BundleContext context) throws BundleException, IOException {
+        return context.installBundle(m_name, toInputStream());
+    }
+
+    private static String join(List<String> statements) {
+        StringBuilder result = new StringBuilder();
+        for (String statement : statements) {
+            result.append((result.length() == 0) ? "" : ",").append(statement);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.test.support;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.luminis.osgitest.testhelper.BundleSpecifier;
+import net.luminis.osgitest.testhelper.BundleUtil;
+import net.luminis.osgitest.testhelper.TestBase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.runner.RunWith;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+
+/**
+ * Base class for tests that run several scenarios in a single booted framework, instead of
+ * paying for a framework boot per scenario. Between scenarios, {@link #resetFramework()}
+ * uninstalls the test bundles, refreshes the framework and verifies that nothing leaked;
+ * the same check is done once the test is done. Refreshes go through a {@link RefreshCoordinator},
+ * so bundles uninstalled using {@link #uninstall(Bundle[])} cost a single refresh at the next reset.
+ * All refreshes of a test should go through the coordinator; {@link BundleUtil#refreshFrameworkAndWait(Bundle[])}
+ * of <code>m_bu</code> does.
+ * <br />
+ * Pax Exam still starts a fresh framework for each test method, so the gain is in tests that
+ * loop over many small scenarios. Scenarios that are independent of each other can also run at
+ * the same time, see {@link #createScenarios()}.
+ */
+@RunWith(SpecSectionRunner.class)
+public class WarmFrameworkTestBase extends TestBase {
+
+    /**
+     * Time to wait for a refresh to finish, in seconds.
+     */
+    protected static final long REFRESH_TIMEOUT = 60;
+
+    protected FrameworkStateChecker m_state;
+    protected RefreshCoordinator m_refresh;
+
+    @Before
+    public void captureFrameworkState() {
+        m_state = new FrameworkStateChecker(m_context);
+        m_state.capture();
+        m_refresh = new RefreshCoordinator(m_context, m_admin);
+        m_bu = new CoordinatedBundleUtil();
+    }
+
+    /**
+     * Installs the bundle described by the specifier, reusing the jar of an identical specifier
+     * from the {@link BundleCache} when there is one.
+     */
+    protected Bundle installCachedBundle(BundleSpecifier specifier) throws BundleException, IOException {
+        return BundleCache.getInstance().installBundle(m_context, specifier);
+    }
+
+    /**
+     * Installs the bundles described by the specifiers as one batch, see {@link BundleInstaller}.
+     * The bundles are not resolved, so the test can check how they resolve.
+     * @return The installed bundles, in the order of the specifiers.
+     */
+    protected Bundle[] installBundles(BundleSpecifier... specifiers) throws BundleException, IOException {
+        return new BundleInstaller(m_context, m_admin).installBundles(specifiers);
+    }
+
+    /**
+     * Creates a set of scenarios that run in parallel in this framework, each in its own
+     * {@link BundleNamespace}. Their bundles are refreshed at the next reset.
+     */
+    protected ConcurrentScenarios createScenarios() {
+        return new ConcurrentScenarios(m_context, m_bu, m_refresh);
+    }
+
+    /**
+     * Uninstalls the given bundles, and requests a refresh for them without waiting for it.
+     * The refresh is started by the next {@link #refresh()} or {@link #resetFramework()}.
+     */
+    protected void uninstall(Bundle... bundles) throws BundleException {
+        for (Bundle bundle : bundles) {
+            bundle.uninstall();
+        }
+        m_refresh.request(bundles);
+    }
+
+    /**
+     * Starts a single refresh for all pending refresh requests, and waits for it to finish.
+     */
+    protected void refresh() {
+        waitForRefresh(m_refresh.flush());
+    }
+
+    /**
+     * Brings the framework back to the state it was in when the test started, and fails
+     * when anything is left behind. All test bundles are uninstalled before a single refresh.
+     */
+    protected void resetFramework() {
+        for (Bundle bundle : m_context.getBundles()) {
+            String name = bundle.getSymbolicName();
+            if ((name != null) && name.startsWith(BundleUtil.BUNDLE_PREFIX)) {
+                try {
+                    bundle.uninstall();
+                }
+                catch (BundleException e) {
+                    e.printStackTrace(System.err);
+                }
+            }
+        }
+        waitForRefresh(m_refresh.refresh((Bundle[]) null));
+        m_state.check();
+    }
+
+    private void waitForRefresh(Future<Void> refresh) {
+        try {
+            refresh.get(REFRESH_TIMEOUT, TimeUnit.SECONDS);
+        }
+        catch (TimeoutException e) {
+            assert false : "The framework did not finish refreshing within " + REFRESH_TIMEOUT + " seconds";
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Waiting for a refresh failed.", e);
+        }
+    }
+
+    /**
+     * Lets the refreshes of the test helpers go through the {@link RefreshCoordinator}, since a refresh
+     * it does not know about would complete one of its own refreshes.
+     */
+    private class CoordinatedBundleUtil extends BundleUtil {
+        CoordinatedBundleUtil() {
+            super(m_context, m_admin, genericActivator);
+        }
+
+        @Override
+        public void refreshFrameworkAndWait(Bundle[] bundles) {
+            waitForRefresh(m_refresh.refresh(bundles));
+        }
+    }
+
+    @After
+    @Override
+    public void cleanupBundles() {
+        resetFramework();
+    }
+}
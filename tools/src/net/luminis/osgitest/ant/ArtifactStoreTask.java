@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.ant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+/**
+ * Keeps the framework jars that were downloaded or built, so a build id only has to be fetched once.
+ * Jars are stored by the SHA-1 of their content as <code>&lt;dir&gt;/sha1/&lt;ab&gt;/&lt;sha1&gt;.jar</code>,
+ * and every vendor has an index <code>&lt;dir&gt;/index/&lt;vendor&gt;.properties</code> that maps its
+ * build ids to those hashes, and remembers the id that was stored last.
+ * <br />
+ * The task has three actions, all of which set <code>property</code> to the location of the jar:
+ * <ul>
+ * <li><code>store</code> adds <code>file</code> to the store as build <code>id</code>.</li>
+ * <li><code>lookup</code> finds build <code>id</code>, and leaves the property unset when the store does
+ * not have it, or when its content no longer matches the hash.</li>
+ * <li><code>latest</code> finds the build that was stored last, and sets <code>idProperty</code> to its id.
+ * This lets the frameworks be tested without contacting any remote location.</li>
+ * </ul>
+ */
+public class ArtifactStoreTask extends Task {
+
+    private static final String ID_PREFIX = "id.";
+    private static final String LATEST = "latest";
+
+    private File m_dir;
+    private String m_action = "lookup";
+    private String m_vendor;
+    private String m_id;
+    private File m_file;
+    private String m_property;
+    private String m_idProperty;
+
+    public void setDir(File dir) {
+        m_dir = dir;
+    }
+
+    /**
+     * One of <code>store</code>, <code>lookup</code> (the default) or <code>latest</code>.
+     */
+    public void setAction(String action) {
+        m_action = action;
+    }
+
+    public void setVendor(String vendor) {
+        m_vendor = vendor;
+    }
+
+    public void setId(String id) {
+        m_id = id;
+    }
+
+    public void setFile(File file) {
+        m_file = file;
+    }
+
+    public void setProperty(String property) {
+        m_property = property;
+    }
+
+    public void setIdProperty(String idProperty) {
+        m_idProperty = idProperty;
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if ((m_dir == null) || (m_vendor == null) || (m_property == null)) {
+            throw new BuildException("The dir, vendor and property attributes are required.", getLocation());
+        }
+        try {
+            if ("store".equals(m_action)) {
+                store();
+            }
+            else if ("lookup".equals(m_action)) {
+                lookup();
+            }
+            else if (LATEST.equals(m_action)) {
+                latest();
+            }
+            else {
+                throw new BuildException("Unknown action " + m_action + ", use store, lookup or latest.", getLocation());
+            }
+        }
+        catch (IOException e) {
+            throw new BuildException("Unable to access the artifact store in " + m_dir, e, getLocation());
+        }
+    }
+
+    private void store() throws IOException {
+        if (m_id == null) {
+            throw new BuildException("The id attribute is required to store a file.", getLocation());
+        }
+        if ((m_file == null) || !m_file.isFile()) {
+            throw new BuildException("There is no file " + m_file + " to store.", getLocation());
+        }
+        String hash = hash(m_file);
+        File blob = getBlob(hash);
+        if (!blob.isFile()) {
+            // Copy next to the blob first, so an interrupted build never leaves half a jar under its hash.
+            blob.getParentFile().mkdirs();
+            File tmp = new File(blob.getParentFile(), blob.getName() + ".tmp");
+            copy(m_file, tmp);
+            if (!tmp.renameTo(blob)) {
+                tmp.delete();
+                throw new IOException("Unable to move " + tmp + " to " + blob);
+            }
+        }
+        Properties index = loadIndex();
+        index.setProperty(ID_PREFIX + m_id, hash);
+        index.setProperty(LATEST, m_id);
+        storeIndex(index);
+        log("Stored " + m_vendor + " " + m_id + " as " + hash, Project.MSG_INFO);
+        getProject().setNewProperty(m_property, blob.getAbsolutePath());
+    }
+
+    private void lookup() throws IOException {
+        if (m_id == null) {
+            throw new BuildException("The id attribute is required to look up a file.", getLocation());
+        }
+        File blob = find(loadIndex(), m_id);
+        if (blob != null) {
+            log("Found " + m_vendor + " " + m_id + " in the artifact store", Project.MSG_INFO);
+            getProject().setNewProperty(m_property, blob.getAbsolutePath());
+        }
+        else {
+            log("The artifact store does not contain " + m_vendor + " " + m_id, Project.MSG_INFO);
+        }
+    }
+
+    private void latest() throws IOException {
+        Properties index = loadIndex();
+        String id = index.getProperty(LATEST);
+        File blob = (id == null) ? null : find(index, id);
+        if (blob == null) {
+            throw new BuildException("The artifact store in " + m_dir + " does not contain a build of " + m_vendor
+                + ". Fetch one without offline=true first.", getLocation());
+        }
+        log("Using " + m_vendor + " " + id + " from the artifact store", Project.MSG_INFO);
+        if (m_idProperty != null) {
+            getProject().setNewProperty(m_idProperty, id);
+        }
+        getProject().setNewProperty(m_property, blob.getAbsolutePath());
+    }
+
+    /**
+     * Returns the stored jar of a build id, or <code>null</code> if it is missing or damaged.
+     */
+    private File find(Properties index, String id) throws IOException {
+        String hash = index.getProperty(ID_PREFIX + id);
+        if (hash == null) {
+            return null;
+        }
+        File blob = getBlob(hash);
+        if (!blob.isFile()) {
+            return null;
+        }
+        if (!hash.equals(hash(blob))) {
+            log("Removing " + blob + ", its content does not match its hash", Project.MSG_WARN);
+            blob.delete();
+            return null;
+        }
+        return blob;
+    }
+
+    private File getBlob(String hash) {
+        return new File(m_dir, "sha1/" + hash.substring(0, 2) + "/" + hash + ".jar");
+    }
+
+    private File getIndex() {
+        return new File(m_dir, "index/" + m_vendor + ".properties");
+    }
+
+    private Properties loadIndex() throws IOException {
+        Properties index = new Properties();
+        File file = getIndex();
+        if (file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                index.load(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        return index;
+    }
+
+    private void storeIndex(Properties index) throws IOException {
+        File file = getIndex();
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            index.store(out, "Framework builds of " + m_vendor + " by id");
+        }
+        finally {
+            out.close();
+        }
+        // renameTo does not replace an existing file on every platform.
+        file.delete();
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Unable to move " + tmp + " to " + file);
+        }
+    }
+
+    private static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM supports SHA-1", e);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+        StringBuilder result = new StringBuilder();
+        for (byte b : digest.digest()) {
+            result.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        }
+        return result.toString();
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] buffer = new byte[8192];
+                for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.ant;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The parts of a class file the build tasks look at: the classes it mentions, and the runtime visible
+ * annotations of its methods. Reading the bytecode keeps the tasks from loading the test classes, and
+ * with them the harness and the OSGi framework.
+ */
+class ClassFile {
+
+    private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([\\w/$]+);");
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    private final Object[] m_constants;
+    private final int m_access;
+    private final String m_name;
+    private final List<Method> m_methods = new ArrayList<Method>();
+
+    private ClassFile(DataInputStream in, File file) throws IOException {
+        if (in.readInt() != 0xCAFEBABE) {
+            throw new IOException(file + " is not a class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+        m_constants = new Object[in.readUnsignedShort()];
+        for (int i = 1; i < m_constants.length; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1:
+                    m_constants[i] = in.readUTF();
+                    break;
+                case 3:
+                    m_constants[i] = in.readInt();
+                    break;
+                case 4:
+                    m_constants[i] = in.readFloat();
+                    break;
+                case 5:
+                    m_constants[i++] = in.readLong();
+                    break;
+                case 6:
+                    m_constants[i++] = in.readDouble();
+                    break;
+                case 7:
+                    // Class constants are resolved to their name when it is asked for.
+                    m_constants[i] = new ClassReference(in.readUnsignedShort());
+                    break;
+                case 8: case 16: case 19: case 20:
+                    in.readUnsignedShort();
+                    break;
+                case 15:
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 9: case 10: case 11: case 12: case 17: case 18:
+                    in.readInt();
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + tag + " in " + file);
+            }
+        }
+        m_access = in.readUnsignedShort();
+        m_name = getClassName(in.readUnsignedShort()).replace('/', '.');
+        in.readUnsignedShort();
+        skip(in, 2 * in.readUnsignedShort());
+
+        int fields = in.readUnsignedShort();
+        for (int i = 0; i < fields; i++) {
+            skip(in, 6);
+            skipAttributes(in);
+        }
+        int methods = in.readUnsignedShort();
+        for (int i = 0; i < methods; i++) {
+            int access = in.readUnsignedShort();
+            Method method = new Method(access, (String) m_constants[in.readUnsignedShort()]);
+            in.readUnsignedShort();
+            int attributes = in.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                String name = (String) m_constants[in.readUnsignedShort()];
+                int length = in.readInt();
+                if (RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+                    int annotations = in.readUnsignedShort();
+                    for (int k = 0; k < annotations; k++) {
+                        method.m_annotations.add(readAnnotation(in));
+                    }
+                }
+                else {
+                    skip(in, length);
+                }
+            }
+            m_methods.add(method);
+        }
+    }
+
+    public static ClassFile read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return new ClassFile(in, file);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the binary name of the class, eg. <code>net.luminis.Outer$Inner</code>.
+     */
+    public String getName() {
+        return m_name;
+    }
+
+    public boolean isConcrete() {
+        return (m_access & (Modifier.ABSTRACT | Modifier.INTERFACE)) == 0;
+    }
+
+    public List<Method> getMethods() {
+        return m_methods;
+    }
+
+    /**
+     * Returns the internal names (with slashes) of all classes the class file mentions, both as class
+     * constants and inside descriptors and signatures. Some of the names may be ordinary strings.
+     */
+    public Set<String> getReferences() {
+        Set<String> result = new HashSet<String>();
+        for (Object constant : m_constants) {
+            // Class constants refer to a string constant as well, so every name passes through here.
+            if (constant instanceof String) {
+                String utf8 = (String) constant;
+                result.add(utf8);
+                Matcher matcher = DESCRIPTOR_CLASS.matcher(utf8);
+                while (matcher.find()) {
+                    result.add(matcher.group(1));
+                }
+            }
+        }
+        return result;
+    }
+
+    private Annotation readAnnotation(DataInputStream in) throws IOException {
+        String descriptor = (String) m_constants[in.readUnsignedShort()];
+        Annotation annotation = new Annotation(descriptor.substring(1, descriptor.length() - 1).replace('/', '.'));
+        int pairs = in.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            String name = (String) m_constants[in.readUnsignedShort()];
+            annotation.m_values.put(name, readElementValue(in));
+        }
+        return annotation;
+    }
+
+    private Object readElementValue(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case 'e':
+                in.readUnsignedShort();
+                return m_constants[in.readUnsignedShort()];
+            case 'c':
+                return m_constants[in.readUnsignedShort()];
+            case '@':
+                return readAnnotation(in);
+            case '[':
+                int length = in.readUnsignedShort();
+                List<Object> values = new ArrayList<Object>(length);
+                for (int i = 0; i < length; i++) {
+                    values.add(readElementValue(in));
+                }
+                return values;
+            default:
+                return m_constants[in.readUnsignedShort()];
+        }
+    }
+
+    private String getClassName(int index) {
+        return (String) m_constants[((ClassReference) m_constants[index]).m_nameIndex];
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        int attributes = in.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            in.readUnsignedShort();
+            skip(in, in.readInt());
+        }
+    }
+
+    private static void skip(DataInputStream in, int bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = in.skipBytes(bytes);
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of class file");
+            }
+            bytes -= skipped;
+        }
+    }
+
+    private static class ClassReference {
+        private final int m_nameIndex;
+
+        ClassReference(int nameIndex) {
+            m_nameIndex = nameIndex;
+        }
+    }
+
+    public static class Method {
+        private final int m_access;
+        private final String m_name;
+        private final List<Annotation> m_annotations = new ArrayList<Annotation>();
+
+        Method(int access, String name) {
+            m_access = access;
+            m_name = name;
+        }
+
+        public String getName() {
+            return m_name;
+        }
+
+        public boolean isPublic() {
+            return (m_access & Modifier.PUBLIC) != 0;
+        }
+
+        /**
+         * Returns the annotation of the given type (binary name), or <code>null</code>.
+         */
+        public Annotation getAnnotation(String type) {
+            for (Annotation annotation : m_annotations) {
+                if (annotation.getType().equals(type)) {
+                    return annotation;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * An annotation; its values are constants, strings (also for enums and classes), nested annotations,
+     * or lists of those.
+     */
+    public static class Annotation {
+        private final String m_type;
+        private final Map<String, Object> m_values = new LinkedHashMap<String, Object>();
+
+        Annotation(String type) {
+            m_type = type;
+        }
+
+        public String getType() {
+            return m_type;
+        }
+
+        public Object getValue(String name) {
+            return m_values.get(name);
+        }
+
+        /**
+         * Returns an array value as a list; a single value is a list of one, and a missing one is empty.
+         */
+        public List<?> getValues(String name) {
+            Object value = m_values.get(name);
+            if (value == null) {
+                return Collections.emptyList();
+            }
+            return (value instanceof List<?>) ? (List<?>) value : Collections.singletonList(value);
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.ant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Vector;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Creates an HTML report of the execution times in the <code>TEST-*.xml</code> results of a test run.
+ * It shows the time per test per vendor, and a heatmap of the time spent per specification section per
+ * vendor. <code>BOOT-*.properties</code> files in the filesets, written by BootProfileTest, are added as
+ * a table of boot profiles.
+ * <br />
+ * The times of the run are stored in the <code>timingsFile</code>. When a <code>baseline</code> with the
+ * times of an earlier run is given, every test that got more than <code>threshold</code> (default 0.2,
+ * so 20%) slower is flagged; tests that take less than <code>minTime</code> seconds in both runs are
+ * never flagged, since their times are mostly noise. The number of flagged tests is stored in the
+ * property set with <code>regressionsProperty</code>, if any.
+ */
+public class PerformanceReportTask extends Task {
+
+    private static final String SEPARATOR = "|";
+
+    private final Vector<FileSet> m_filesets = new Vector<FileSet>();
+    private File m_toFile;
+    private File m_timingsFile;
+    private File m_baseline;
+    private double m_threshold = 0.2;
+    private double m_minTime = 0.1;
+    private String m_regressionsProperty;
+
+    /** Test name to vendor to time in seconds. */
+    private final Map<String, Map<String, Double>> m_tests = new TreeMap<String, Map<String, Double>>();
+    /** Specification section to vendor to time in seconds. */
+    private final Map<String, Map<String, Double>> m_sections = new TreeMap<String, Map<String, Double>>(new SectionComparator());
+    private final SortedSet<String> m_vendors = new TreeSet<String>();
+    private final List<Properties> m_bootProfiles = new ArrayList<Properties>();
+
+    public void setToFile(File toFile) {
+        m_toFile = toFile;
+    }
+
+    public void setTimingsFile(File timingsFile) {
+        m_timingsFile = timingsFile;
+    }
+
+    /**
+     * A timings file of an earlier run; ignored when it does not exist.
+     */
+    public void setBaseline(File baseline) {
+        m_baseline = baseline;
+    }
+
+    public void setThreshold(double threshold) {
+        m_threshold = threshold;
+    }
+
+    public void setMinTime(double minTime) {
+        m_minTime = minTime;
+    }
+
+    public void setRegressionsProperty(String regressionsProperty) {
+        m_regressionsProperty = regressionsProperty;
+    }
+
+    public void addFileset(FileSet fileset) {
+        m_filesets.add(fileset);
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if (m_toFile == null) {
+            throw new BuildException("The attribute toFile is required.", getLocation());
+        }
+
+        for (FileSet fs : m_filesets) {
+            DirectoryScanner ds = fs.getDirectoryScanner(getProject());
+            for (String file : ds.getIncludedFiles()) {
+                File result = new File(ds.getBasedir(), file);
+                if (result.getName().endsWith(".properties")) {
+                    readBootProfile(result);
+                }
+                else {
+                    readResults(result);
+                }
+            }
+        }
+
+        Properties timings = getTimings();
+        Properties baseline = null;
+        if ((m_baseline != null) && m_baseline.isFile()) {
+            baseline = load(m_baseline);
+            log("Comparing with baseline " + m_baseline);
+        }
+        if (m_timingsFile != null) {
+            store(timings, m_timingsFile);
+        }
+
+        int regressions;
+        try {
+            regressions = writeReport(baseline);
+        }
+        catch (IOException e) {
+            throw new BuildException("Unable to write " + m_toFile, e, getLocation());
+        }
+        log("Wrote " + m_toFile + ", " + regressions + " tests got more than " + Math.round(m_threshold * 100) + "% slower");
+        if (m_regressionsProperty != null) {
+            getProject().setNewProperty(m_regressionsProperty, String.valueOf(regressions));
+        }
+    }
+
+    private void readResults(File file) {
+        try {
+            Element suite = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement();
+            NodeList testcases = suite.getElementsByTagName("testcase");
+            for (int i = 0; i < testcases.getLength(); i++) {
+                Element testcase = (Element) testcases.item(i);
+                String vendor = testcase.getAttribute("osgi-vendor-name");
+                String test = testcase.getAttribute("classname") + "." + testcase.getAttribute("name");
+                double time = Double.parseDouble(testcase.getAttribute("time"));
+                m_vendors.add(vendor);
+                put(m_tests, test, vendor, time, false);
+
+                NodeList specs = testcase.getElementsByTagName("osgi-spec");
+                for (int j = 0; j < specs.getLength(); j++) {
+                    Element spec = (Element) specs.item(j);
+                    NodeList sections = spec.getElementsByTagName("section");
+                    for (int k = 0; k < sections.getLength(); k++) {
+                        String section = spec.getAttribute("version") + " " + sections.item(k).getTextContent().trim();
+                        put(m_sections, section, vendor, time, true);
+                    }
+                }
+            }
+        }
+        catch (Exception e) {
+            log("Unable to read the test results from " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void readBootProfile(File file) {
+        try {
+            m_bootProfiles.add(load(file));
+        }
+        catch (BuildException e) {
+            log(e.getMessage());
+        }
+    }
+
+    private static void put(Map<String, Map<String, Double>> map, String row, String vendor, double time, boolean add) {
+        Map<String, Double> times = map.get(row);
+        if (times == null) {
+            times = new TreeMap<String, Double>();
+            map.put(row, times);
+        }
+        Double old = times.get(vendor);
+        times.put(vendor, (add && (old != null)) ? old + time : time);
+    }
+
+    private Properties getTimings() {
+        Properties timings = new Properties();
+        for (Map.Entry<String, Map<String, Double>> test : m_tests.entrySet()) {
+            for (Map.Entry<String, Double> time : test.getValue().entrySet()) {
+                timings.setProperty(time.getKey() + SEPARATOR + test.getKey(), time.getValue().toString());
+            }
+        }
+        return timings;
+    }
+
+    /**
+     * Writes the HTML report.
+     * @return The number of tests that got slower than the threshold allows.
+     */
+    private int writeReport(Properties baseline) throws IOException {
+        m_toFile.getParentFile().mkdirs();
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(m_toFile), "UTF-8"));
+        int regressions = 0;
+        try {
+            out.println("<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\"/>");
+            out.println("<title>Performance report</title>");
+            out.println("<style type=\"text/css\">");
+            out.println("body { font-family: sans-serif; font-size: 12px; } table { border-collapse: collapse; }");
+            out.println("th, td { border: 1px solid #ccc; padding: 2px 6px; } td.time { text-align: right; }");
+            out.println(".slower { background: #f88; } .faster { background: #8f8; }");
+            out.println("</style></head><body>");
+            out.println("<h1>Performance report</h1>");
+
+            out.println("<h2>Execution time per test (s)</h2>");
+            if (baseline != null) {
+                out.println("<p>Compared with " + escape(m_baseline.getPath()) + "; tests more than " + Math.round(m_threshold * 100)
+                    + "% slower are marked red, more than " + Math.round(m_threshold * 100) + "% faster green.</p>");
+            }
+            out.println("<table>");
+            writeHeader(out, "Test");
+            for (Map.Entry<String, Map<String, Double>> test : m_tests.entrySet()) {
+                out.print("<tr><td>" + escape(test.getKey()) + "</td>");
+                for (String vendor : m_vendors) {
+                    Double time = test.getValue().get(vendor);
+                    Double previous = null;
+                    if ((baseline != null) && (baseline.getProperty(vendor + SEPARATOR + test.getKey()) != null)) {
+                        previous = Double.valueOf(baseline.getProperty(vendor + SEPARATOR + test.getKey()));
+                    }
+                    String style = "time";
+                    String title = "";
+                    if ((time != null) && (previous != null) && (Math.max(time, previous) >= m_minTime)) {
+                        if (time > previous * (1 + m_threshold)) {
+                            style += " slower";
+                            regressions++;
+                            log(vendor + " " + test.getKey() + " got slower: " + format(previous) + "s to " + format(time) + "s");
+                        }
+                        else if (time < previous * (1 - m_threshold)) {
+                            style += " faster";
+                        }
+                        title = " title=\"baseline " + format(previous) + "s\"";
+                    }
+                    out.print("<td class=\"" + style + "\"" + title + ">" + ((time == null) ? "" : format(time)) + "</td>");
+                }
+                out.println("</tr>");
+            }
+            out.println("</table>");
+
+            out.println("<h2>Execution time per specification section (s)</h2>");
+            double max = 0;
+            for (Map<String, Double> times : m_sections.values()) {
+                for (Double time : times.values()) {
+                    max = Math.max(max, time);
+                }
+            }
+            out.println("<table>");
+            writeHeader(out, "Section");
+            for (Map.Entry<String, Map<String, Double>> section : m_sections.entrySet()) {
+                out.print("<tr><td>" + escape(section.getKey()) + "</td>");
+                for (String vendor : m_vendors) {
+                    Double time = section.getValue().get(vendor);
+                    if (time == null) {
+                        out.print("<td></td>");
+                    }
+                    else {
+                        int shade = (int) Math.round(200 * ((max == 0) ? 0 : time / max));
+                        out.print("<td class=\"time\" style=\"background: rgb(255, " + (255 - shade) + ", " + (255 - shade) + ")\">"
+                            + format(time) + "</td>");
+                    }
+                }
+                out.println("</tr>");
+            }
+            out.println("</table>");
+
+            if (!m_bootProfiles.isEmpty()) {
+                writeBootProfiles(out);
+            }
+            out.println("</body></html>");
+        }
+        finally {
+            out.close();
+        }
+        return regressions;
+    }
+
+    private void writeBootProfiles(PrintWriter out) {
+        SortedSet<String> keys = new TreeSet<String>();
+        for (Properties profile : m_bootProfiles) {
+            for (Object key : profile.keySet()) {
+                keys.add((String) key);
+            }
+        }
+        keys.remove("vendor");
+        keys.remove("version");
+        out.println("<h2>Framework boot profiles</h2>");
+        out.print("<table><tr><th>Framework</th>");
+        for (String key : keys) {
+            out.print("<th>" + escape(key) + "</th>");
+        }
+        out.println("</tr>");
+        for (Properties profile : m_bootProfiles) {
+            out.print("<tr><td>" + escape(profile.getProperty("vendor") + " " + profile.getProperty("version")) + "</td>");
+            for (String key : keys) {
+                out.print("<td class=\"time\">" + escape(profile.getProperty(key, "")) + "</td>");
+            }
+            out.println("</tr>");
+        }
+        out.println("</table>");
+    }
+
+    private void writeHeader(PrintWriter out, String title) {
+        out.print("<tr><th>" + title + "</th>");
+        for (String vendor : m_vendors) {
+            out.print("<th>" + escape(vendor) + "</th>");
+        }
+        out.println("</tr>");
+    }
+
+    private static String format(double seconds) {
+        return String.format(Locale.US, "%.3f", seconds);
+    }
+
+    private static String escape(String s) {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private Properties load(File file) throws BuildException {
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e) {
+            throw new BuildException("Unable to read " + file + ": " + e.getMessage(), e, getLocation());
+        }
+        return properties;
+    }
+
+    private void store(Properties properties, File file) throws BuildException {
+        try {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(file);
+            try {
+                properties.store(out, "Test execution times in seconds, per vendor and test");
+            }
+            finally {
+                out.close();
+            }
+        }
+        catch (IOException e) {
+            throw new BuildException("Unable to write " + file + ": " + e.getMessage(), e, getLocation());
+        }
+    }
+
+    /**
+     * Orders sections like "4.2 3.6.10" numerically, part by part.
+     */
+    private static class SectionComparator implements Comparator<String> {
+        public int compare(String o1, String o2) {
+            String[] parts1 = o1.split("[ .]");
+            String[] parts2 = o2.split("[ .]");
+            for (int i = 0; (i < parts1.length) && (i < parts2.length); i++) {
+                int result;
+                try {
+                    result = Integer.valueOf(parts1[i]).compareTo(Integer.valueOf(parts2[i]));
+                }
+                catch (NumberFormatException e) {
+                    result = parts1[i].compareTo(parts2[i]);
+                }
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return parts1.length - parts2.length;
+        }
+    }
+}
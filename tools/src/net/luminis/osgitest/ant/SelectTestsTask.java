@@ -0,0 +1,420 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.ant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.Vector;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Path;
+import org.w3c.dom.Element;
+
+/**
+ * Selects the test classes that have to run again for a list of vendors, because they changed since
+ * their last green run. Every test class gets a key: the SHA-1 of its own bytecode, the bytecode of the
+ * classes it depends on in <code>classesDir</code> (transitively), the files of the <code>dependencies</code>
+ * path, and the platform definitions of the vendors. The keys of the green runs are kept in
+ * <code>stateDir</code>, in a file per list of vendors.
+ * <br />
+ * With <code>action="select"</code>, the property <code>prefix.includes</code> is set to a comma separated
+ * list of include patterns for the classes whose key differs from their last green run, <code>prefix.count</code>
+ * to the number of them, and <code>prefix.since</code> to the time of the selection. When <code>incremental</code>
+ * is false, every class is selected. With <code>action="record"</code>, the classes whose <code>TEST-*.xml</code>
+ * in <code>resultsDir</code> was written after <code>since</code> and has no failures or errors are stored as
+ * green, and the others are forgotten. Only the classes that were selected should be recorded.
+ * <br />
+ * When <code>sections</code> is set, only the classes with test methods for those spec sections in
+ * <code>specIndex</code> (see {@link SpecIndexTask}) are selected, and their <code>class#method</code>
+ * names are written to <code>methodsFile</code>, whose location is stored in <code>prefix.methods</code>.
+ * Such a run does not run every test method of a class, so it is never recorded as green.
+ */
+public class SelectTestsTask extends Task {
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final Vector<FileSet> m_filesets = new Vector<FileSet>();
+    private String m_action = "select";
+    private File m_classesDir;
+    private File m_stateDir;
+    private File m_resultsDir;
+    private File m_platformDefinitionDir;
+    private String m_vendors = "";
+    private long m_since = 0;
+    private Path m_dependencies;
+    private boolean m_incremental = true;
+    private String m_prefix = "tests";
+    private File m_specIndex;
+    private String m_sections = "";
+    private File m_methodsFile;
+
+    /**
+     * Either <code>select</code> (the default) or <code>record</code>.
+     */
+    public void setAction(String action) {
+        m_action = action;
+    }
+
+    public void setClassesDir(File classesDir) {
+        m_classesDir = classesDir;
+    }
+
+    public void setStateDir(File stateDir) {
+        m_stateDir = stateDir;
+    }
+
+    /**
+     * Directory containing the <code>TEST-*.xml</code> results, for the <code>record</code> action.
+     */
+    public void setResultsDir(File resultsDir) {
+        m_resultsDir = resultsDir;
+    }
+
+    /**
+     * Results older than this time (in ms) are left from an earlier run, for the <code>record</code> action.
+     */
+    public void setSince(long since) {
+        m_since = since;
+    }
+
+    public void setPlatformDefinitionDir(File platformDefinitionDir) {
+        m_platformDefinitionDir = platformDefinitionDir;
+    }
+
+    /**
+     * Comma separated list of vendors, eg. <code>felix/3.0.1,equinox/3.5.1</code>.
+     */
+    public void setVendors(String vendors) {
+        m_vendors = vendors;
+    }
+
+    public void setIncremental(boolean incremental) {
+        m_incremental = incremental;
+    }
+
+    public void setPrefix(String prefix) {
+        m_prefix = prefix;
+    }
+
+    public void setSpecIndex(File specIndex) {
+        m_specIndex = specIndex;
+    }
+
+    /**
+     * Comma separated spec sections, like <code>3.6.*,4.2:6.1.4</code>, or empty to select whole classes.
+     */
+    public void setSections(String sections) {
+        m_sections = sections.trim();
+    }
+
+    public void setMethodsFile(File methodsFile) {
+        m_methodsFile = methodsFile;
+    }
+
+    public void addFileset(FileSet fileset) {
+        m_filesets.add(fileset);
+    }
+
+    /**
+     * Files outside <code>classesDir</code> all tests depend on, like the test helper jar.
+     */
+    public Path createDependencies() {
+        if (m_dependencies == null) {
+            m_dependencies = new Path(getProject());
+        }
+        return m_dependencies.createPath();
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if ((m_classesDir == null) || (m_stateDir == null)) {
+            throw new BuildException("The classesDir and stateDir attributes are required.", getLocation());
+        }
+        try {
+            if ("select".equals(m_action)) {
+                select();
+            }
+            else if ("record".equals(m_action)) {
+                if (m_resultsDir == null) {
+                    throw new BuildException("The resultsDir attribute is required to record green runs.", getLocation());
+                }
+                record();
+            }
+            else {
+                throw new BuildException("Unknown action " + m_action + ", use select or record.", getLocation());
+            }
+        }
+        catch (IOException e) {
+            throw new BuildException("Unable to select the tests for " + m_vendors, e, getLocation());
+        }
+    }
+
+    private void select() throws IOException {
+        List<String> testClasses = getTestClasses();
+        if (m_sections.length() > 0) {
+            testClasses = selectSections(testClasses);
+        }
+        else {
+            getProject().setNewProperty(m_prefix + ".methods", "");
+        }
+        Properties green = loadState();
+        String common = m_incremental ? getCommonKey() : null;
+
+        StringBuilder includes = new StringBuilder();
+        int count = 0;
+        for (String testClass : testClasses) {
+            if (m_incremental && getKey(testClass, common).equals(green.getProperty(testClass))) {
+                log("Up to date: " + testClass, Project.MSG_VERBOSE);
+                continue;
+            }
+            if (includes.length() > 0) {
+                includes.append(',');
+            }
+            includes.append(testClass);
+            count++;
+        }
+        if (m_incremental) {
+            log(count + " of " + testClasses.size() + " test classes changed since their last green run for " + m_vendors);
+        }
+        // An empty includes attribute would select every file, so no selection gets a pattern that matches nothing.
+        getProject().setNewProperty(m_prefix + ".includes", (count > 0) ? includes.toString() : "no-tests-selected");
+        getProject().setNewProperty(m_prefix + ".count", Integer.toString(count));
+        // File systems may store modification times in whole seconds, so leave some margin.
+        getProject().setNewProperty(m_prefix + ".since", Long.toString(System.currentTimeMillis() - 2000));
+    }
+
+    /**
+     * Returns the test classes with methods for the selected spec sections, and writes those methods to the methods file.
+     */
+    private List<String> selectSections(List<String> testClasses) throws IOException {
+        if ((m_specIndex == null) || (m_methodsFile == null)) {
+            throw new BuildException("The specIndex and methodsFile attributes are required to select spec sections.", getLocation());
+        }
+        Set<String> methods = SpecIndexTask.select(m_specIndex, m_sections);
+        Set<String> classes = new HashSet<String>();
+        for (String method : methods) {
+            classes.add(method.substring(0, method.indexOf('#')).replace('.', '/') + CLASS_SUFFIX);
+        }
+        List<String> result = new ArrayList<String>();
+        for (String testClass : testClasses) {
+            if (classes.contains(testClass)) {
+                result.add(testClass);
+            }
+        }
+
+        m_methodsFile.getParentFile().mkdirs();
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(m_methodsFile), "UTF-8"));
+        try {
+            for (String method : methods) {
+                writer.println(method);
+            }
+        }
+        finally {
+            writer.close();
+        }
+        log(methods.size() + " test methods in " + result.size() + " classes cover spec sections " + m_sections);
+        getProject().setNewProperty(m_prefix + ".methods", m_methodsFile.getAbsolutePath());
+        return result;
+    }
+
+    private void record() throws IOException {
+        if (m_sections.length() > 0) {
+            log("Not recording green runs, since only the tests for spec sections " + m_sections + " ran");
+            return;
+        }
+        Properties green = loadState();
+        String common = getCommonKey();
+        for (String testClass : getTestClasses()) {
+            if (isGreen(testClass)) {
+                green.setProperty(testClass, getKey(testClass, common));
+            }
+            else {
+                green.remove(testClass);
+            }
+        }
+        storeState(green);
+    }
+
+    private List<String> getTestClasses() {
+        List<String> testClasses = new ArrayList<String>();
+        for (FileSet fs : m_filesets) {
+            DirectoryScanner ds = fs.getDirectoryScanner(getProject());
+            for (String file : ds.getIncludedFiles()) {
+                testClasses.add(file.replace(File.separatorChar, '/'));
+            }
+        }
+        return testClasses;
+    }
+
+    private boolean isGreen(String testClass) {
+        String className = testClass.substring(0, testClass.length() - CLASS_SUFFIX.length()).replace('/', '.');
+        File result = new File(m_resultsDir, "TEST-" + className + ".xml");
+        if (!result.isFile() || (result.lastModified() < m_since)) {
+            return false;
+        }
+        try {
+            Element suite = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(result).getDocumentElement();
+            return "0".equals(suite.getAttribute("failures")) && "0".equals(suite.getAttribute("errors"));
+        }
+        catch (Exception e) {
+            log("Unable to read the outcome from " + result + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Returns the key of a test class: its own bytecode and that of the classes it depends on, and the common key.
+     */
+    private String getKey(String testClass, String common) throws IOException {
+        MessageDigest digest = newDigest();
+        for (String dependency : getClassClosure(testClass)) {
+            digest.update(dependency.getBytes("UTF-8"));
+            update(digest, new File(m_classesDir, dependency));
+        }
+        digest.update(common.getBytes("UTF-8"));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the part of the key that is the same for all test classes: the dependencies and the platform definitions.
+     */
+    private String getCommonKey() throws IOException {
+        MessageDigest digest = newDigest();
+        if (m_dependencies != null) {
+            for (String file : m_dependencies.list()) {
+                digest.update(file.getBytes("UTF-8"));
+                if (new File(file).isFile()) {
+                    update(digest, new File(file));
+                }
+            }
+        }
+        for (String vendor : m_vendors.split(",")) {
+            vendor = vendor.trim();
+            digest.update(vendor.getBytes("UTF-8"));
+            File definition = (m_platformDefinitionDir == null) ? null : new File(m_platformDefinitionDir, vendor + ".xml");
+            if ((definition != null) && definition.isFile()) {
+                update(digest, definition);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Returns the class files in the classes directory a class file refers to, directly or indirectly,
+     * including the class file itself, in a stable order.
+     */
+    private Set<String> getClassClosure(String classFile) throws IOException {
+        Set<String> result = new TreeSet<String>();
+        LinkedList<String> todo = new LinkedList<String>();
+        todo.add(classFile);
+        while (!todo.isEmpty()) {
+            String current = todo.removeFirst();
+            if (result.add(current)) {
+                for (String reference : ClassFile.read(new File(m_classesDir, current)).getReferences()) {
+                    String referenced = reference + CLASS_SUFFIX;
+                    if (!result.contains(referenced) && new File(m_classesDir, referenced).isFile()) {
+                        todo.add(referenced);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private File getStateFile() {
+        return new File(m_stateDir, m_vendors.replaceAll("[^\\w.-]", "_") + ".properties");
+    }
+
+    private Properties loadState() throws IOException {
+        Properties state = new Properties();
+        File file = getStateFile();
+        if (file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                state.load(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        return state;
+    }
+
+    private void storeState(Properties state) throws IOException {
+        m_stateDir.mkdirs();
+        OutputStream out = new FileOutputStream(getStateFile());
+        try {
+            state.store(out, "Keys of the last green run of every test class for " + m_vendors);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM supports SHA-1", e);
+        }
+    }
+
+    private static void update(MessageDigest digest, File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.ant;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
+import org.w3c.dom.Element;
+
+/**
+ * Divides a set of test classes over a number of shards, so each shard can be run in its own
+ * forked framework. Classes are assigned longest-first to the least loaded shard, using the
+ * durations recorded in the <code>TEST-*.xml</code> files of an earlier run. Classes without
+ * a recorded duration are assumed to take as long as the average known class.
+ * <br />
+ * For every shard <code>i</code>, the property <code>prefix.i</code> is set to a comma separated
+ * list of include patterns, which can be used in the fileset of a batchtest. The property
+ * <code>prefix.list</code> contains the comma separated shard numbers, for use in a for loop.
+ */
+public class ShardTestsTask extends Task {
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final Vector<FileSet> m_filesets = new Vector<FileSet>();
+    private int m_shards = 1;
+    private File m_historyDir;
+    private String m_prefix = "shard";
+
+    public void setShards(int shards) {
+        m_shards = shards;
+    }
+
+    /**
+     * Directory containing the <code>TEST-*.xml</code> results of an earlier run.
+     */
+    public void setHistoryDir(File historyDir) {
+        m_historyDir = historyDir;
+    }
+
+    public void setPrefix(String prefix) {
+        m_prefix = prefix;
+    }
+
+    public void addFileset(FileSet fileset) {
+        m_filesets.add(fileset);
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if (m_shards < 1) {
+            throw new BuildException("The number of shards should be at least 1.", getLocation());
+        }
+
+        List<String> testClasses = new ArrayList<String>();
+        for (FileSet fs : m_filesets) {
+            DirectoryScanner ds = fs.getDirectoryScanner(getProject());
+            for (String file : ds.getIncludedFiles()) {
+                testClasses.add(file.replace(File.separatorChar, '/'));
+            }
+        }
+
+        final Map<String, Double> durations = getDurations(testClasses);
+        Collections.sort(testClasses, new Comparator<String>() {
+            public int compare(String o1, String o2) {
+                return durations.get(o2).compareTo(durations.get(o1));
+            }
+        });
+
+        double[] load = new double[m_shards];
+        StringBuilder[] includes = new StringBuilder[m_shards];
+        for (int i = 0; i < m_shards; i++) {
+            includes[i] = new StringBuilder();
+        }
+        for (String testClass : testClasses) {
+            int lightest = 0;
+            for (int i = 1; i < m_shards; i++) {
+                if (load[i] < load[lightest]) {
+                    lightest = i;
+                }
+            }
+            load[lightest] += durations.get(testClass);
+            if (includes[lightest].length() > 0) {
+                includes[lightest].append(',');
+            }
+            includes[lightest].append(testClass);
+        }
+
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < m_shards; i++) {
+            if (i > 0) {
+                list.append(',');
+            }
+            list.append(i);
+            // An empty includes attribute would select every file, so idle shards get a pattern that matches nothing.
+            String value = includes[i].length() > 0 ? includes[i].toString() : "no-tests-for-shard-" + i;
+            getProject().setNewProperty(m_prefix + "." + i, value);
+            log("Shard " + i + " (estimated " + Math.round(load[i]) + "s): " + value);
+        }
+        getProject().setNewProperty(m_prefix + ".list", list.toString());
+    }
+
+    /**
+     * Returns the expected duration in seconds for each of the test classes.
+     */
+    private Map<String, Double> getDurations(List<String> testClasses) {
+        Map<String, Double> durations = new HashMap<String, Double>();
+        double total = 0;
+        int known = 0;
+        for (String testClass : testClasses) {
+            Double duration = readDuration(testClass);
+            if (duration != null) {
+                durations.put(testClass, duration);
+                total += duration;
+                known++;
+            }
+        }
+
+        Double average = (known == 0) ? 1.0 : total / known;
+        for (String testClass : testClasses) {
+            if (!durations.containsKey(testClass)) {
+                durations.put(testClass, average);
+            }
+        }
+        return durations;
+    }
+
+    private Double readDuration(String testClass) {
+        if (m_historyDir == null) {
+            return null;
+        }
+        String className = testClass.substring(0, testClass.length() - CLASS_SUFFIX.length()).replace('/', '.');
+        File result = new File(m_historyDir, "TEST-" + className + ".xml");
+        if (!result.isFile()) {
+            return null;
+        }
+        try {
+            Element suite = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(result).getDocumentElement();
+            return Double.valueOf(suite.getAttribute("time"));
+        }
+        catch (Exception e) {
+            log("Unable to read the duration from " + result + ": " + e.getMessage());
+            return null;
+        }
+    }
+}
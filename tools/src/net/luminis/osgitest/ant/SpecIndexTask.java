@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.ant;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Vector;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
+
+/**
+ * Writes an index from OSGi spec sections to the test methods that cover them, by reading the
+ * <code>@OSGiVersionSpecs</code> and <code>@OSGiSpec</code> annotations from the bytecode of the test
+ * classes. Every line of the index holds a spec version, a section, and the comma separated
+ * <code>class#method</code> names of its tests, eg.
+ * <pre>4.2 3.13.1 net.luminis.osgitest.test.framework.modulelayer.FragmentTest#testFragmentAttach</pre>
+ */
+public class SpecIndexTask extends Task {
+
+    private static final String OSGI_SPEC = "net.luminis.osgitest.testhelper.OSGiSpec";
+    private static final String OSGI_VERSION_SPECS = "net.luminis.osgitest.testhelper.OSGiVersionSpecs";
+    private static final String TEST = "org.junit.Test";
+
+    /** Orders "3.10" after "3.9". */
+    private static final Comparator<String> SECTION_ORDER = new Comparator<String>() {
+        public int compare(String o1, String o2) {
+            String[] parts1 = o1.split("[. ]");
+            String[] parts2 = o2.split("[. ]");
+            for (int i = 0; (i < parts1.length) && (i < parts2.length); i++) {
+                int result = (parts1[i].length() == parts2[i].length())
+                    ? parts1[i].compareTo(parts2[i]) : parts1[i].length() - parts2[i].length();
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return parts1.length - parts2.length;
+        }
+    };
+
+    private final Vector<FileSet> m_filesets = new Vector<FileSet>();
+    private File m_toFile;
+
+    public void setToFile(File toFile) {
+        m_toFile = toFile;
+    }
+
+    public void addFileset(FileSet fileset) {
+        m_filesets.add(fileset);
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if (m_toFile == null) {
+            throw new BuildException("The toFile attribute is required.", getLocation());
+        }
+        Map<String, Set<String>> index = new TreeMap<String, Set<String>>(SECTION_ORDER);
+        int methods = 0;
+        try {
+            for (FileSet fs : m_filesets) {
+                DirectoryScanner ds = fs.getDirectoryScanner(getProject());
+                for (String file : ds.getIncludedFiles()) {
+                    ClassFile classFile = ClassFile.read(new File(ds.getBasedir(), file));
+                    if (classFile.isConcrete()) {
+                        methods += addMethods(index, classFile);
+                    }
+                }
+            }
+            write(index);
+        }
+        catch (IOException e) {
+            throw new BuildException("Unable to write the spec index " + m_toFile, e, getLocation());
+        }
+        log("Indexed " + methods + " test methods over " + index.size() + " spec sections in " + m_toFile);
+    }
+
+    private static int addMethods(Map<String, Set<String>> index, ClassFile classFile) {
+        int result = 0;
+        for (ClassFile.Method method : classFile.getMethods()) {
+            if (!method.isPublic() || (method.getAnnotation(TEST) == null)) {
+                continue;
+            }
+            String test = classFile.getName() + "#" + method.getName();
+            for (Object spec : getSpecs(method)) {
+                ClassFile.Annotation annotation = (ClassFile.Annotation) spec;
+                for (Object section : annotation.getValues("sections")) {
+                    String key = annotation.getValue("version") + " " + section;
+                    Set<String> tests = index.get(key);
+                    if (tests == null) {
+                        tests = new TreeSet<String>();
+                        index.put(key, tests);
+                    }
+                    tests.add(test);
+                }
+            }
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the <code>@OSGiSpec</code> annotations of a method, like the result formatter reads them.
+     */
+    private static List<?> getSpecs(ClassFile.Method method) {
+        ClassFile.Annotation specs = method.getAnnotation(OSGI_VERSION_SPECS);
+        if (specs != null) {
+            return specs.getValues("value");
+        }
+        ClassFile.Annotation spec = method.getAnnotation(OSGI_SPEC);
+        return (spec != null) ? Collections.singletonList(spec) : Collections.emptyList();
+    }
+
+    private void write(Map<String, Set<String>> index) throws IOException {
+        m_toFile.getParentFile().mkdirs();
+        PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(m_toFile), "UTF-8"));
+        try {
+            writer.println("# Test methods by OSGi spec section: <version> <section> <class>#<method>,...");
+            for (Map.Entry<String, Set<String>> entry : index.entrySet()) {
+                StringBuilder line = new StringBuilder(entry.getKey()).append(' ');
+                boolean first = true;
+                for (String test : entry.getValue()) {
+                    line.append(first ? "" : ",").append(test);
+                    first = false;
+                }
+                writer.println(line);
+            }
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Returns the <code>class#method</code> names of the tests in an index that cover any of the given
+     * sections. A section is matched exactly, unless it ends with <code>.*</code>, which also matches
+     * everything below it; it can be limited to one spec version by prefixing it with the version and
+     * a colon. For example, <code>3.6.*,4.2:6.1.4</code> matches 3.6 and its subsections in any
+     * version, and 6.1.4 in version 4.2.
+     */
+    static Set<String> select(File indexFile, String sections) throws IOException {
+        Set<String> result = new TreeSet<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] parts = line.trim().split(" ");
+                if (line.startsWith("#") || (parts.length != 3)) {
+                    continue;
+                }
+                for (String pattern : sections.split(",")) {
+                    if (matches(pattern.trim(), parts[0], parts[1])) {
+                        for (String test : parts[2].split(",")) {
+                            result.add(test);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    private static boolean matches(String pattern, String version, String section) {
+        int colon = pattern.indexOf(':');
+        if (colon != -1) {
+            if (!pattern.substring(0, colon).equals(version)) {
+                return false;
+            }
+            pattern = pattern.substring(colon + 1);
+        }
+        if (pattern.endsWith(".*")) {
+            String prefix = pattern.substring(0, pattern.length() - 2);
+            return section.equals(prefix) || section.startsWith(prefix + ".");
+        }
+        return section.equals(pattern);
+    }
+}
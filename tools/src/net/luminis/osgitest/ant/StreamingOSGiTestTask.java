@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.ant;
+
+import net.luminis.osgitest.results.StreamingResultFormatter;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * {@link OSGiTestTask} that writes its results with the {@link StreamingResultFormatter}, so the memory
+ * the forked framework needs for them does not grow with the number of tests. The formatter is loaded
+ * in the forked framework, so it should be on the classpath of the tests.
+ */
+public class StreamingOSGiTestTask extends OSGiTestTask {
+
+    public StreamingOSGiTestTask() throws Exception {
+        super();
+    }
+
+    @Override
+    public void init() throws BuildException {
+        FORMATTER_CLASSNAME = StreamingResultFormatter.class.getName();
+        super.init();
+    }
+}
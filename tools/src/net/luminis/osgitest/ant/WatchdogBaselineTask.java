@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.ant;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Learns the baseline durations the hang watchdog of the test runner compares running tests with.
+ * For every test method that passed in a <code>TEST-*.xml</code> file in <code>resultsDir</code> written
+ * after <code>since</code>, the baseline of <code>class#method@vendor</code> in <code>file</code> moves
+ * towards its duration: the new baseline is <code>weight</code> times the duration plus the rest of the
+ * old baseline. A test without a baseline starts at its duration. Failed tests are left out, so a hang
+ * does not raise the baseline.
+ */
+public class WatchdogBaselineTask extends Task {
+
+    private File m_resultsDir;
+    private File m_file;
+    private long m_since = 0;
+    private double m_weight = 0.3;
+
+    /**
+     * Directory containing the <code>TEST-*.xml</code> results.
+     */
+    public void setResultsDir(File resultsDir) {
+        m_resultsDir = resultsDir;
+    }
+
+    /**
+     * Properties file with the baselines, in seconds.
+     */
+    public void setFile(File file) {
+        m_file = file;
+    }
+
+    /**
+     * Results older than this time (in ms) are left from an earlier run.
+     */
+    public void setSince(long since) {
+        m_since = since;
+    }
+
+    /**
+     * Weight of the latest duration, between 0 and 1; defaults to 0.3.
+     */
+    public void setWeight(double weight) {
+        m_weight = weight;
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if ((m_resultsDir == null) || (m_file == null)) {
+            throw new BuildException("The resultsDir and file attributes are required.", getLocation());
+        }
+        if ((m_weight <= 0) || (m_weight > 1)) {
+            throw new BuildException("The weight should be larger than 0, and at most 1.", getLocation());
+        }
+        try {
+            Properties baseline = load();
+            int count = 0;
+            File[] results = m_resultsDir.listFiles();
+            for (File result : (results == null) ? new File[0] : results) {
+                if (result.getName().startsWith("TEST-") && result.getName().endsWith(".xml") && (result.lastModified() >= m_since)) {
+                    count += learn(baseline, result);
+                }
+            }
+            store(baseline);
+            log("Learned the durations of " + count + " tests, " + baseline.size() + " baselines in " + m_file);
+        }
+        catch (IOException e) {
+            throw new BuildException("Unable to update the baselines in " + m_file, e, getLocation());
+        }
+    }
+
+    /**
+     * Updates the baselines with the passed tests of one result file.
+     * @return The number of tests learned from.
+     */
+    private int learn(Properties baseline, File result) {
+        int count = 0;
+        try {
+            Element suite = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(result).getDocumentElement();
+            NodeList testcases = suite.getElementsByTagName("testcase");
+            for (int i = 0; i < testcases.getLength(); i++) {
+                Element testcase = (Element) testcases.item(i);
+                if ((testcase.getElementsByTagName("failure").getLength() > 0) || (testcase.getElementsByTagName("error").getLength() > 0)) {
+                    continue;
+                }
+                String key = testcase.getAttribute("classname") + "#" + testcase.getAttribute("name") + "@" + testcase.getAttribute("osgi-vendor-name");
+                double time = Double.parseDouble(testcase.getAttribute("time"));
+                String old = baseline.getProperty(key);
+                if (old != null) {
+                    time = m_weight * time + (1 - m_weight) * Double.parseDouble(old);
+                }
+                baseline.setProperty(key, String.format(Locale.US, "%.3f", time));
+                count++;
+            }
+        }
+        catch (Exception e) {
+            log("Unable to read the test results from " + result + ": " + e.getMessage());
+        }
+        return count;
+    }
+
+    private Properties load() throws IOException {
+        Properties baseline = new Properties();
+        if (m_file.isFile()) {
+            InputStream in = new FileInputStream(m_file);
+            try {
+                baseline.load(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        return baseline;
+    }
+
+    private void store(Properties baseline) throws IOException {
+        m_file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(m_file);
+        try {
+            baseline.store(out, "Baseline durations of the tests in seconds, for the hang watchdog");
+        }
+        finally {
+            out.close();
+        }
+    }
+}
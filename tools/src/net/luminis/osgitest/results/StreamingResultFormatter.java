@@ -0,0 +1,413 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.results;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.Test;
+import net.luminis.osgitest.testhelper.OSGiSpec;
+import net.luminis.osgitest.testhelper.OSGiVersionSpecs;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.taskdefs.optional.junit.JUnitResultFormatter;
+import org.apache.tools.ant.taskdefs.optional.junit.JUnitTest;
+import org.apache.tools.ant.taskdefs.optional.junit.JUnitTestRunner;
+import org.apache.tools.ant.taskdefs.optional.junit.JUnitVersionHelper;
+import org.apache.tools.ant.taskdefs.optional.junit.XMLConstants;
+import org.apache.tools.ant.util.DateUtils;
+
+/**
+ * Writes the same <code>TEST-*.xml</code> files as {@link PaxExamResultFormatter}, but streams them
+ * with an {@link XMLWriter} instead of building a DOM of the whole suite. Every testcase is written as soon as it
+ * ends, to a temporary file in <code>java.io.tmpdir</code>; only the running test is kept in memory.
+ * Since the totals of the suite are attributes of the root element, the file is assembled when the
+ * suite ends: the root element first, then the testcases copied from the temporary file.
+ * <br />
+ * The captured system output and error of the suite are cut down to at most {@link #PROP_MAX_OUTPUT}
+ * characters each (64K by default), keeping their start and their end. This only limits the result file:
+ * {@link JUnitTestRunner} collects the complete output of the suite in memory before handing it over.
+ */
+public class StreamingResultFormatter implements JUnitResultFormatter, XMLConstants {
+
+    public static final String PROP_MAX_OUTPUT = "net.luminis.osgitest.results.maxoutput";
+
+    private static final int MAX_OUTPUT = Integer.getInteger(PROP_MAX_OUTPUT, 64 * 1024);
+    private static final double ONE_SECOND = 1000.0;
+    private static final String ENCODING = "UTF-8";
+    private static final String UNKNOWN = "unknown";
+    private static final String ATTR_OSGI_VENDOR_NAME = "osgi-vendor-name";
+    private static final String ELEMENT_OSGI_SPECS = "osgi-specs";
+    private static final String ELEMENT_OSGI_SPEC = "osgi-spec";
+    private static final String ATTR_OSGI_SPEC_VERSION = "version";
+    private static final String ELEMENT_OSGI_SPEC_SECTIONS = "sections";
+    private static final String ELEMENT_OSGI_SPEC_SECTION = "section";
+    private static final Pattern TEST_NAME = Pattern.compile("^([^\\s]+)\\s*\\[([^\\[]+)[\\[]?.*[\\]]?\\]$");
+
+    private OutputStream m_out;
+    private String m_timestamp;
+    private File m_testcasesFile;
+    private Writer m_testcasesWriter;
+    private XMLWriter m_testcases;
+    private String m_systemOutput;
+    private String m_systemError;
+
+    /** The test that started last, and has not been written yet. */
+    private Test m_test;
+    private long m_testStart;
+    private final List<Fault> m_faults = new ArrayList<Fault>();
+
+    public void setOutput(OutputStream out) {
+        m_out = out;
+    }
+
+    public void setSystemOutput(String output) {
+        m_systemOutput = truncate(output);
+    }
+
+    public void setSystemError(String output) {
+        m_systemError = truncate(output);
+    }
+
+    public void startTestSuite(JUnitTest suite) {
+        m_timestamp = DateUtils.format(new Date(), DateUtils.ISO8601_DATETIME_PATTERN);
+        try {
+            m_testcasesFile = File.createTempFile("TEST-", ".testcases");
+            m_testcasesWriter = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(m_testcasesFile)), ENCODING);
+            m_testcases = new XMLWriter(m_testcasesWriter);
+
+            m_testcases.writeStartElement(PROPERTIES);
+            Properties properties = suite.getProperties();
+            if (properties != null) {
+                Enumeration<?> names = properties.propertyNames();
+                while (names.hasMoreElements()) {
+                    String name = (String) names.nextElement();
+                    m_testcases.writeEmptyElement(PROPERTY);
+                    m_testcases.writeAttribute(ATTR_NAME, clean(name));
+                    m_testcases.writeAttribute(ATTR_VALUE, clean(properties.getProperty(name)));
+                }
+            }
+            m_testcases.writeEndElement();
+        }
+        catch (IOException e) {
+            throw new BuildException("Unable to write log file", e);
+        }
+    }
+
+    public void endTestSuite(JUnitTest suite) throws BuildException {
+        try {
+            writeTest();
+            m_testcases.close();
+            m_testcasesWriter.close();
+            if (m_out != null) {
+                writeSuite(suite);
+            }
+        }
+        catch (IOException e) {
+            throw new BuildException("Unable to write log file", e);
+        }
+        finally {
+            m_testcasesFile.delete();
+        }
+    }
+
+    public void startTest(Test test) {
+        if (!test.equals(m_test)) {
+            writeTest();
+            m_test = test;
+            m_testStart = System.currentTimeMillis();
+        }
+    }
+
+    public void endTest(Test test) {
+        startTest(test);
+        writeTest();
+    }
+
+    public void addFailure(Test test, Throwable t) {
+        addFault(FAILURE, test, t);
+    }
+
+    public void addFailure(Test test, AssertionFailedError t) {
+        addFailure(test, (Throwable) t);
+    }
+
+    public void addError(Test test, Throwable t) {
+        addFault(ERROR, test, t);
+    }
+
+    /**
+     * Failures are written inside their testcase, so they wait for the end of the test. A failure
+     * that does not belong to a test is written directly.
+     */
+    private void addFault(String type, Test test, Throwable t) {
+        Fault fault = new Fault(type, t);
+        if (test != null) {
+            startTest(test);
+            m_faults.add(fault);
+        }
+        else {
+            try {
+                fault.write(m_testcases);
+            }
+            catch (IOException e) {
+                throw new BuildException("Unable to write log file", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending test, if any, to the temporary file.
+     */
+    private void writeTest() {
+        if (m_test == null) {
+            return;
+        }
+        Test test = m_test;
+        m_test = null;
+        try {
+            m_testcases.writeStartElement(TESTCASE);
+            String name = JUnitVersionHelper.getTestCaseName(test);
+            Matcher matcher = (name == null) ? null : TEST_NAME.matcher(name);
+            if ((matcher != null) && matcher.find() && (matcher.groupCount() >= 2)) {
+                m_testcases.writeAttribute(ATTR_NAME, clean(matcher.group(1)));
+                m_testcases.writeAttribute(ATTR_OSGI_VENDOR_NAME, clean(matcher.group(2)));
+            }
+            else {
+                m_testcases.writeAttribute(ATTR_NAME, UNKNOWN);
+                m_testcases.writeAttribute(ATTR_OSGI_VENDOR_NAME, UNKNOWN);
+                matcher = null;
+            }
+            String className = JUnitVersionHelper.getTestCaseClassName(test);
+            m_testcases.writeAttribute(ATTR_CLASSNAME, clean(className));
+            m_testcases.writeAttribute(ATTR_TIME, Double.toString((System.currentTimeMillis() - m_testStart) / ONE_SECOND));
+            if (matcher != null) {
+                writeOSGiSpecs(getOSGiSpecs(className, matcher.group(1)));
+            }
+            for (Fault fault : m_faults) {
+                fault.write(m_testcases);
+            }
+            m_testcases.writeEndElement();
+            m_testcases.writeCharacters("\n");
+        }
+        catch (IOException e) {
+            throw new BuildException("Unable to write log file", e);
+        }
+        finally {
+            m_faults.clear();
+        }
+    }
+
+    private void writeOSGiSpecs(List<OSGiSpec> specs) throws IOException {
+        if (specs.isEmpty()) {
+            return;
+        }
+        m_testcases.writeStartElement(ELEMENT_OSGI_SPECS);
+        for (OSGiSpec spec : specs) {
+            m_testcases.writeStartElement(ELEMENT_OSGI_SPEC);
+            m_testcases.writeAttribute(ATTR_OSGI_SPEC_VERSION, spec.version());
+            if (spec.sections().length > 0) {
+                m_testcases.writeStartElement(ELEMENT_OSGI_SPEC_SECTIONS);
+                for (String section : spec.sections()) {
+                    m_testcases.writeStartElement(ELEMENT_OSGI_SPEC_SECTION);
+                    m_testcases.writeCharacters(section);
+                    m_testcases.writeEndElement();
+                }
+                m_testcases.writeEndElement();
+            }
+            m_testcases.writeEndElement();
+        }
+        m_testcases.writeEndElement();
+    }
+
+    /**
+     * Writes the complete result file: the root element with the totals of the suite, the testcases
+     * collected in the temporary file, and the system output and error.
+     */
+    private void writeSuite(JUnitTest suite) throws IOException {
+        Writer out = new OutputStreamWriter(m_out, ENCODING);
+        try {
+            XMLWriter xml = new XMLWriter(out);
+            xml.writeStartDocument(ENCODING, "1.0");
+            xml.writeCharacters("\n");
+            xml.writeStartElement(TESTSUITE);
+            xml.writeAttribute(ATTR_NAME, (suite.getName() == null) ? UNKNOWN : clean(suite.getName()));
+            xml.writeAttribute(TIMESTAMP, m_timestamp);
+            xml.writeAttribute(HOSTNAME, getHostname());
+            xml.writeAttribute(ATTR_TESTS, Long.toString(suite.runCount()));
+            xml.writeAttribute(ATTR_FAILURES, Long.toString(suite.failureCount()));
+            xml.writeAttribute(ATTR_ERRORS, Long.toString(suite.errorCount()));
+            xml.writeAttribute(ATTR_TIME, Double.toString(suite.getRunTime() / ONE_SECOND));
+            // Closes the start tag, so the testcases can be copied behind it.
+            xml.writeCharacters("\n");
+            xml.flush();
+
+            Reader testcases = new InputStreamReader(new FileInputStream(m_testcasesFile), ENCODING);
+            try {
+                char[] buffer = new char[8192];
+                for (int read = testcases.read(buffer); read != -1; read = testcases.read(buffer)) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            finally {
+                testcases.close();
+            }
+
+            writeOutput(xml, SYSTEM_OUT, m_systemOutput);
+            writeOutput(xml, SYSTEM_ERR, m_systemError);
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.writeCharacters("\n");
+            xml.flush();
+            out.flush();
+        }
+        finally {
+            if ((m_out != System.out) && (m_out != System.err)) {
+                out.close();
+            }
+        }
+    }
+
+    private static void writeOutput(XMLWriter xml, String element, String output) throws IOException {
+        if (output == null) {
+            return;
+        }
+        xml.writeStartElement(element);
+        // A CDATA section cannot contain its own end marker, so that is split over two sections.
+        int start = 0;
+        for (int end = output.indexOf("]]>"); end != -1; end = output.indexOf("]]>", start)) {
+            xml.writeCData(output.substring(start, end + 2));
+            start = end + 2;
+        }
+        xml.writeCData(output.substring(start));
+        xml.writeEndElement();
+        xml.writeCharacters("\n");
+    }
+
+    private static List<OSGiSpec> getOSGiSpecs(String className, String methodName) {
+        List<OSGiSpec> result = new ArrayList<OSGiSpec>();
+        try {
+            Method method = Class.forName(className).getMethod(methodName);
+            OSGiVersionSpecs specs = method.getAnnotation(OSGiVersionSpecs.class);
+            if (specs != null) {
+                result.addAll(Arrays.asList(specs.value()));
+            }
+            else {
+                OSGiSpec spec = method.getAnnotation(OSGiSpec.class);
+                if (spec != null) {
+                    result.add(spec);
+                }
+            }
+        }
+        catch (Throwable t) {
+            // Without the annotations, the test is still reported, just not linked to the spec.
+        }
+        return result;
+    }
+
+    /**
+     * Keeps the start and the end of a long output, and replaces the rest by a note.
+     */
+    private static String truncate(String output) {
+        if ((output == null) || (output.length() <= MAX_OUTPUT)) {
+            return clean(output);
+        }
+        int keep = MAX_OUTPUT / 2;
+        return clean(output.substring(0, keep))
+            + "\n[... " + (output.length() - 2 * keep) + " characters omitted ...]\n"
+            + clean(output.substring(output.length() - keep));
+    }
+
+    /**
+     * Removes the characters that cannot appear in an XML 1.0 document.
+     */
+    private static String clean(String s) {
+        if (s == null) {
+            return null;
+        }
+        StringBuilder result = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            boolean valid = (c == '\t') || (c == '\n') || (c == '\r') || ((c >= 0x20) && (c <= 0xFFFD));
+            if (!valid && (result == null)) {
+                result = new StringBuilder(s.substring(0, i));
+            }
+            else if (valid && (result != null)) {
+                result.append(c);
+            }
+        }
+        return (result == null) ? s : result.toString();
+    }
+
+    private static String getHostname() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    /**
+     * A failure or error of a test, kept until the test has ended.
+     */
+    private static class Fault {
+        private final String m_type;
+        private final String m_message;
+        private final String m_exception;
+        private final String m_trace;
+
+        Fault(String type, Throwable t) {
+            m_type = type;
+            m_message = t.getMessage();
+            m_exception = t.getClass().getName();
+            m_trace = JUnitTestRunner.getFilteredTrace(t);
+        }
+
+        void write(XMLWriter xml) throws IOException {
+            xml.writeStartElement(m_type);
+            if ((m_message != null) && (m_message.length() > 0)) {
+                xml.writeAttribute(ATTR_MESSAGE, clean(m_message));
+            }
+            xml.writeAttribute(ATTR_TYPE, m_exception);
+            xml.writeCharacters(clean(m_trace));
+            xml.writeEndElement();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package net.luminis.osgitest.results;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedList;
+
+/**
+ * Writes an XML document to a stream, element by element, like a StAX <code>XMLStreamWriter</code>,
+ * which is not available on Java 1.5. Only the part used by {@link StreamingResultFormatter} is
+ * supported: elements, attributes, text and CDATA sections, without namespaces.
+ * <br />
+ * The caller is responsible for only passing characters that may appear in an XML 1.0 document.
+ */
+class XMLWriter {
+
+    private final Writer m_out;
+    private final LinkedList<String> m_elements = new LinkedList<String>();
+    /** Whether the start tag of the last element is still open for attributes. */
+    private boolean m_startTagOpen = false;
+    /** Whether the open start tag is that of an empty element. */
+    private boolean m_empty = false;
+
+    XMLWriter(Writer out) {
+        m_out = out;
+    }
+
+    public void writeStartDocument(String encoding, String version) throws IOException {
+        m_out.write("<?xml version=\"" + version + "\" encoding=\"" + encoding + "\"?>");
+    }
+
+    public void writeStartElement(String name) throws IOException {
+        finishStartTag();
+        m_out.write('<');
+        m_out.write(name);
+        m_elements.addLast(name);
+        m_startTagOpen = true;
+    }
+
+    public void writeEmptyElement(String name) throws IOException {
+        finishStartTag();
+        m_out.write('<');
+        m_out.write(name);
+        m_startTagOpen = true;
+        m_empty = true;
+    }
+
+    public void writeAttribute(String name, String value) throws IOException {
+        if (!m_startTagOpen) {
+            throw new IllegalStateException("Attribute " + name + " is not inside a start tag.");
+        }
+        m_out.write(' ');
+        m_out.write(name);
+        m_out.write("=\"");
+        escape(value, true);
+        m_out.write('"');
+    }
+
+    /**
+     * Ends the last element that was started; an element without content is written as <code>&lt;name/&gt;</code>.
+     */
+    public void writeEndElement() throws IOException {
+        if (m_startTagOpen && !m_empty) {
+            m_out.write("/>");
+            m_startTagOpen = false;
+            m_elements.removeLast();
+        }
+        else {
+            finishStartTag();
+            m_out.write("</");
+            m_out.write(m_elements.removeLast());
+            m_out.write('>');
+        }
+    }
+
+    /**
+     * Ends all elements that are still open.
+     */
+    public void writeEndDocument() throws IOException {
+        finishStartTag();
+        while (!m_elements.isEmpty()) {
+            writeEndElement();
+        }
+    }
+
+    public void writeCharacters(String text) throws IOException {
+        finishStartTag();
+        escape(text, false);
+    }
+
+    /**
+     * Writes a CDATA section; the text should not contain <code>]]&gt;</code>.
+     */
+    public void writeCData(String text) throws IOException {
+        finishStartTag();
+        m_out.write("<![CDATA[");
+        m_out.write(text);
+        m_out.write("]]>");
+    }
+
+    public void flush() throws IOException {
+        finishStartTag();
+        m_out.flush();
+    }
+
+    /**
+     * Flushes the document, but leaves the underlying writer open.
+     */
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Ends a start tag that is still open for attributes, as an empty element when it is one.
+     */
+    private void finishStartTag() throws IOException {
+        if (m_startTagOpen) {
+            m_out.write(m_empty ? "/>" : ">");
+            m_startTagOpen = false;
+            m_empty = false;
+        }
+    }
+
+    private void escape(String text, boolean attribute) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '&':
+                m_out.write("&amp;");
+                break;
+            case '<':
+                m_out.write("&lt;");
+                break;
+            case '>':
+                m_out.write("&gt;");
+                break;
+            case '"':
+                m_out.write(attribute ? "&quot;" : "\"");
+                break;
+            case '\n':
+                m_out.write(attribute ? "&#10;" : "\n");
+                break;
+            case '\r':
+                m_out.write(attribute ? "&#13;" : "\r");
+                break;
+            case '\t':
+                m_out.write(attribute ? "&#9;" : "\t");
+                break;
+            default:
+                m_out.write(c);
+            }
+        }
+    }
+}